@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/** Measures `add .` on a tree of many small files in nested directories:
+ *  a cold add, which hashes and stores every file, and a warm one, which
+ *  finds them all in the stat cache, with an increasing number of
+ *  threads.
+ *  Usage: java gitlet.AddBenchmark [N [JOBS...]]
+ *  N (default 50000) is the number of files, 100 to a directory; with no
+ *  JOBS, 1, 2, 4 and 8 threads are timed.
+ *  @author Yuhao Wang
+ */
+public class AddBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length == 0 ? 50000 : Integer.parseInt(args[0]);
+        int[] jobs = Bench.ints(args, 1, 1, 2, 4, 8);
+
+        File dir = Bench.tempDirectory();
+        System.setProperty("user.dir", dir.getAbsolutePath());
+        try {
+            Main.main(new String[] {"init"});
+            long old = System.currentTimeMillis() - 10000;
+            for (int i = 0; i < n; i += 1) {
+                File file = Utils.join(dir, "d" + i / 1000, "e" + i / 100 % 10, "f" + i + ".txt");
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), ("file " + i + "\n").repeat(1 + i % 64)
+                        .getBytes(StandardCharsets.UTF_8));
+                /* Old enough that the stat cache trusts it. */
+                file.setLastModified(old);
+            }
+
+            System.out.printf("%d files%n%n", n);
+            System.out.printf("%8s %6s %12s %14s\n", "cache", "jobs", "time (ms)", "files/s");
+            System.out.printf("------------------------------------------\n");
+            for (int j : jobs) {
+                time("cold", j, n);
+            }
+            for (int j : jobs) {
+                time("warm", j, n);
+            }
+        } finally {
+            Bench.delete(dir);
+        }
+    }
+
+    /** Add the whole working directory of N files with JOBS threads and
+     *  print the best time as one table row.  For CACHE "cold" the stage
+     *  and stat cache are emptied before each round. */
+    private static void time(String cache, int jobs, int n) {
+        double best = Bench.best(() -> {
+            if (cache.equals("cold")) {
+                Stage.clearStaged();
+                StatCache.save();
+                StatCache.CACHE_FILE.delete();
+                StatCache.refresh();
+            }
+        }, () -> WorkingTree.add(List.of(Repository.CWD), jobs));
+        System.out.printf("%8s %6d %12.1f %14.0f\n", cache, jobs, best, n / (best / 1e3));
+    }
+}
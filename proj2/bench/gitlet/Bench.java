@@ -0,0 +1,58 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** Helpers shared by the benchmarks in this directory.  They live in
+ *  package gitlet, outside its source directory, so that they can reach
+ *  package-private code without being built into the program.
+ *  @author Yuhao Wang
+ */
+class Bench {
+
+    /** Number of timed rounds for each table row; the best is reported. */
+    static final int ROUNDS = 3;
+
+    /** Return the integers in ARGS from index FROM on, or DEFAULTS if
+     *  there are none. */
+    static int[] ints(String[] args, int from, int... defaults) {
+        if (args.length <= from) {
+            return defaults;
+        }
+        int[] result = new int[args.length - from];
+        for (int i = from; i < args.length; i += 1) {
+            result[i - from] = Integer.parseInt(args[i]);
+        }
+        return result;
+    }
+
+    /** Run PREPARE and then RUN, ROUNDS times, and return the shortest
+     *  time taken by RUN, in milliseconds. */
+    static double best(Runnable prepare, Runnable run) {
+        double best = Double.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r += 1) {
+            prepare.run();
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    /** Return a new empty temporary directory. */
+    static File tempDirectory() throws IOException {
+        return Files.createTempDirectory("gitlet-bench").toFile();
+    }
+
+    /** Delete FILE and, if it is a directory, everything under it. */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,62 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Measures working-tree write throughput: materializing every file of a
+ *  tree of small files, from loose blobs and then from a pack, with an
+ *  increasing number of writer threads.
+ *  Usage: java gitlet.CheckoutBenchmark [N [JOBS...]]
+ *  N (default 10000) is the number of files; with no JOBS, 1, 2, 4, 8
+ *  and 16 threads are timed.
+ *  @author Yuhao Wang
+ */
+public class CheckoutBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length == 0 ? 10000 : Integer.parseInt(args[0]);
+        int[] jobs = Bench.ints(args, 1, 1, 2, 4, 8, 16);
+
+        File dir = Bench.tempDirectory();
+        System.setProperty("user.dir", dir.getAbsolutePath());
+        try {
+            Repository.setupPersistence();
+            Map<String, String> files = new HashMap<>();
+            for (int i = 0; i < n; i += 1) {
+                byte[] contents = ("file " + i + "\n").repeat(1 + i % 64)
+                        .getBytes(StandardCharsets.UTF_8);
+                String id = Blob.stageBytes(contents);
+                Blob.commitStaged(id, null);
+                files.put("f" + i + ".txt", id);
+            }
+
+            System.out.printf("%d files%n%n", n);
+            System.out.printf("%8s %6s %12s %14s\n", "store", "jobs", "time (ms)", "files/s");
+            System.out.printf("------------------------------------------\n");
+            for (int j : jobs) {
+                time("loose", j, files);
+            }
+            Pack.repack();
+            for (int j : jobs) {
+                time("packed", j, files);
+            }
+        } finally {
+            Bench.delete(dir);
+        }
+    }
+
+    /** Write every file in FILES with JOBS threads and print the best
+     *  time as one table row for STORE. */
+    private static void time(String store, int jobs, Map<String, String> files) {
+        double best = Bench.best(() -> {
+            for (String name : files.keySet()) {
+                Utils.join(Repository.CWD, name).delete();
+            }
+        }, () -> WorkingTree.write(files, jobs));
+        System.out.printf("%8s %6d %12.1f %14.0f\n", store, jobs, best,
+                files.size() / (best / 1e3));
+    }
+}
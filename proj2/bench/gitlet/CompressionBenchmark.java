@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Compares raw and Deflate-compressed blob storage: bytes on disk, and
+ *  write and read throughput through the blob store path.
+ *  Usage: java gitlet.CompressionBenchmark [FILE...]
+ *  With no FILEs, a synthetic corpus of source-like text is used.
+ *  @author Yuhao Wang
+ */
+public class CompressionBenchmark {
+
+    /** Number of synthetic files and their size in bytes. */
+    private static final int FILES = 2000;
+    private static final int FILE_SIZE = 16 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        List<byte[]> corpus = args.length == 0 ? syntheticCorpus() : readCorpus(args);
+        long total = 0;
+        for (byte[] b : corpus) {
+            total += b.length;
+        }
+        System.out.printf("%d files, %d bytes%n%n", corpus.size(), total);
+        System.out.printf("%10s %14s %8s %14s %14s\n",
+                "encoding", "stored bytes", "ratio", "write MB/s", "read MB/s");
+        System.out.printf("--------------------------------------------------------------\n");
+        timeEncoding("raw", Blob.RAW, corpus, total);
+        timeEncoding("deflate", Blob.DEFLATE, corpus, total);
+    }
+
+    /** Store every file of CORPUS (TOTAL bytes) with ENCODING, then read
+     *  them all back, and print one table row. */
+    private static void timeEncoding(String name, byte encoding,
+                                     List<byte[]> corpus, long total) throws IOException {
+        File dir = Bench.tempDirectory();
+        try {
+            List<String> ids = new ArrayList<>();
+            long start = System.nanoTime();
+            for (byte[] contents : corpus) {
+                ids.add(Blob.store(Channels.newChannel(new ByteArrayInputStream(contents)),
+                        dir, encoding));
+            }
+            double writeTime = (System.nanoTime() - start) / 1e9;
+
+            long stored = 0;
+            for (String id : ids) {
+                stored += Utils.join(dir, id).length();
+            }
+
+            start = System.nanoTime();
+            byte[] buf = new byte[1 << 16];
+            for (String id : ids) {
+                try (InputStream in = Blob.openStored(
+                        Files.newInputStream(Utils.join(dir, id).toPath()), Blob::contents)) {
+                    while (in.read(buf) != -1) {
+                        continue;
+                    }
+                }
+            }
+            double readTime = (System.nanoTime() - start) / 1e9;
+
+            double mb = total / 1e6;
+            System.out.printf("%10s %14d %8.2f %14.1f %14.1f\n", name, stored,
+                    (double) total / stored, mb / writeTime, mb / readTime);
+        } finally {
+            Bench.delete(dir);
+        }
+    }
+
+    /** Return FILES pseudo-random files that look like program text. */
+    private static List<byte[]> syntheticCorpus() {
+        String[] words = {"public", "static", "void", "int", "return", "if",
+            "else", "for", "while", "String", "new", "this", "null", "final",
+            "commit", "blob", "stage", "branch", "head", "merge", "file"};
+        Random r = new Random(61);
+        List<byte[]> result = new ArrayList<>();
+        for (int i = 0; i < FILES; i += 1) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < FILE_SIZE) {
+                sb.append("    ".repeat(1 + r.nextInt(3)));
+                int n = 3 + r.nextInt(8);
+                for (int k = 0; k < n; k += 1) {
+                    sb.append(words[r.nextInt(words.length)]);
+                    sb.append(k % 4 == 3 ? "(" + r.nextInt(1000) + ") " : " ");
+                }
+                sb.append(";\n");
+            }
+            result.add(sb.substring(0, FILE_SIZE).getBytes());
+        }
+        return result;
+    }
+
+    /** Return the contents of the files named by NAMES. */
+    private static List<byte[]> readCorpus(String[] names) {
+        List<byte[]> result = new ArrayList<>();
+        for (String name : names) {
+            result.add(Utils.readContents(new File(name)));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Measures the line diff and three-way merge on large files.  Each
+ *  base file has N lines of about 40 bytes; one side edits every
+ *  INTERVAL-th line in the first half and inserts a line after every
+ *  INTERVAL-th, the other does the same in the second half, so the
+ *  merge is clean.  A last row has both sides edit the same lines.
+ *  Usage: java gitlet.MergeBenchmark [INTERVAL [N...]]
+ *  INTERVAL defaults to 500; with no N, 25000, 100000 and 400000 lines
+ *  (about 1, 4 and 16 MB) are timed.
+ *  @author Yuhao Wang
+ */
+public class MergeBenchmark {
+
+    public static void main(String[] args) {
+        int interval = args.length == 0 ? 500 : Integer.parseInt(args[0]);
+        int[] sizes = Bench.ints(args, 1, 25000, 100000, 400000);
+
+        System.out.printf("edits every %d lines%n%n", interval);
+        System.out.printf("%8s %8s %8s %12s %12s %10s\n",
+                "lines", "MB", "sides", "diff (ms)", "merge (ms)", "conflicts");
+        System.out.printf("------------------------------------------------------------\n");
+        for (int n : sizes) {
+            byte[] base = text(n, 0, 0, 0, interval);
+            byte[] ours = text(n, 1, 0, n / 2, interval);
+            byte[] theirs = text(n, 2, n / 2, n, interval);
+            time(n, base, "apart", ours, theirs);
+        }
+        int n = sizes[sizes.length - 1];
+        time(n, text(n, 0, 0, 0, interval), "overlap",
+             text(n, 1, 0, n, interval), text(n, 2, 0, n, interval));
+    }
+
+    /** Return N lines of text in which every INTERVAL-th line in
+     *  [FROM, TO) is changed and followed by a new line, marked with
+     *  SIDE. */
+    private static byte[] text(int n, int side, int from, int to, int interval) {
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(n * 42);
+        for (int i = 0; i < n; i += 1) {
+            String line = String.format("%08d %s%n", i, Long.toHexString(random.nextLong())
+                    + Long.toHexString(random.nextLong()));
+            if (i >= from && i < to && i % interval == 0) {
+                line = "side " + side + " changed " + line + "side " + side + " added\n";
+            }
+            out.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    /** Time diffing BASE against OURS and merging OURS and THEIRS, and
+     *  print the best times as one table row for N lines. */
+    private static void time(int n, byte[] base, String sides, byte[] ours, byte[] theirs) {
+        double bestDiff = Bench.best(() -> { }, () -> {
+            Diff.Lines[] lines = Diff.lines(base, ours);
+            Diff.match(lines[0].ids, lines[1].ids);
+        });
+        double bestMerge = Bench.best(() -> { }, () -> Diff.merge3(base, ours, theirs));
+        int conflicts = Diff.merge3(base, ours, theirs).conflicts;
+        System.out.printf("%8d %8.1f %8s %12.1f %12.1f %10d\n", n, base.length / 1e6, sides,
+                bestDiff, bestMerge, conflicts);
+    }
+}
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/** Measures fetching new commits from a repository with a long history:
+ *  copying its whole .gitlet directory, transferring every commit into an
+ *  empty repository, and fetching 0, 1, 10 and 100 new commits into a
+ *  copy of it.  Each commit changes one of 1000 files in 100 directories.
+ *  The fetching side is a Remote.Store over the copy, so the rows time
+ *  exactly the negotiation and pack written by fetch.
+ *  Usage: java gitlet.RemoteBenchmark [N [K...]]
+ *  N (default 10000) is the length of the history; with no K, 0, 1, 10
+ *  and 100 new commits are fetched.
+ *  @author Yuhao Wang
+ */
+public class RemoteBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length == 0 ? 10000 : Integer.parseInt(args[0]);
+        int[] news = Bench.ints(args, 1, 0, 1, 10, 100);
+
+        Path top = Bench.tempDirectory().toPath();
+        File dir = top.resolve("source").toFile();
+        dir.mkdir();
+        System.setProperty("user.dir", dir.getAbsolutePath());
+        try {
+            Main.main(new String[] {"init"});
+            for (int i = 0; i < n; i += 1) {
+                commit(dir, i);
+            }
+
+            System.out.printf("%d commits%n%n", n);
+            System.out.printf("%-12s %8s %10s %12s %12s\n",
+                    "operation", "commits", "objects", "MB", "time (ms)");
+            System.out.printf("-----------------------------------------------------------\n");
+            Path copy = top.resolve("copy");
+            long start = System.nanoTime();
+            copyTree(Repository.GITLET_DIR.toPath(), copy);
+            double ms = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%-12s %8d %10s %12.1f %12.1f\n", "full copy", n + 1, "-",
+                    size(copy) / 1e6, ms);
+
+            Path empty = top.resolve("empty");
+            empty.toFile().mkdir();
+            start = System.nanoTime();
+            int objects = Remote.transfer(new Remote.Store(Repository.GITLET_DIR),
+                    new Remote.Store(empty.toFile()), Repository.readHead());
+            ms = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%-12s %8d %10d %12.1f %12.1f\n", "fetch all", n + 1, objects,
+                    size(empty) / 1e6, ms);
+
+            int made = n;
+            for (int k : news) {
+                for (int i = 0; i < k; i += 1) {
+                    commit(dir, made);
+                    made += 1;
+                }
+                Remote.Store src = new Remote.Store(Repository.GITLET_DIR);
+                long before = size(copy);
+                start = System.nanoTime();
+                objects = Remote.transfer(src, new Remote.Store(copy.toFile()),
+                        Repository.readHead());
+                ms = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-12s %8d %10d %12.3f %12.1f\n", "fetch new", k, objects,
+                        (size(copy) - before) / 1e6, ms);
+            }
+        } finally {
+            Bench.delete(top.toFile());
+        }
+    }
+
+    /** Change one of the files in DIR for commit I, and commit it. */
+    private static void commit(File dir, int i) throws IOException {
+        File file = Utils.join(dir, "d" + i % 100, "f" + i % 1000 + ".txt");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), ("commit " + i + "\n").repeat(1 + i % 32)
+                .getBytes(StandardCharsets.UTF_8));
+        Main.main(new String[] {"add", file.getParentFile().getName() + "/" + file.getName()});
+        Main.main(new String[] {"commit", "commit " + i});
+    }
+
+    /** Copy the directory FROM and everything under it to TO. */
+    private static void copyTree(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Path target = to.resolve(from.relativize(p));
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(p, target);
+                }
+            }
+        }
+    }
+
+    /** Return the total size of the files under DIR. */
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/** Compares Java serialization with the Binary encoding for commit
+ *  headers, the stage and the branch table: encoded size, and encode and
+ *  decode time per record.
+ *  Usage: java gitlet.SerializationBenchmark [N]
+ *  N (default 200) is the number of staged files and of branches.
+ *  @author Yuhao Wang
+ */
+public class SerializationBenchmark {
+
+    /** Number of encode/decode round trips timed for each record. */
+    private static final int ROUNDS = 20000;
+
+    public static void main(String[] args) {
+        int n = args.length == 0 ? 200 : Integer.parseInt(args[0]);
+        Random r = new Random(61);
+
+        Commit commit = new Commit("Fixed the merge of deleted files", null,
+                List.of(randomId(r), randomId(r)));
+        commit.tree = randomId(r);
+        HashMap<String, String> add = new HashMap<>();
+        HashSet<String> remove = new HashSet<>();
+        HashMap<String, String> branches = new HashMap<>();
+        for (int i = 0; i < n; i += 1) {
+            add.put("src/file" + i + ".txt", randomId(r));
+            remove.add("old/file" + i + ".txt");
+            branches.put("feature-" + i, randomId(r));
+        }
+        Stage stage = new Stage(add, remove);
+        Branch branch = new Branch("master", branches);
+
+        System.out.printf("%8s %10s %10s %14s %14s\n",
+                "record", "encoding", "bytes", "encode (us)", "decode (us)");
+        System.out.printf("------------------------------------------------------------\n");
+        time("commit", "java", () -> Utils.serialize(commit),
+                b -> Utils.deserialize(b, Commit.class));
+        time("commit", "binary", commit::encode, Commit::decode);
+        time("stage", "java", () -> Utils.serialize(stage),
+                b -> Utils.deserialize(b, Stage.class));
+        time("stage", "binary", stage::encode, Stage::decode);
+        time("branch", "java", () -> Utils.serialize(branch),
+                b -> Utils.deserialize(b, Branch.class));
+        time("branch", "binary", branch::encode, Branch::decode);
+    }
+
+    /** Time ROUNDS calls of ENCODE and of DECODE on its result, and print
+     *  one table row for RECORD in ENCODING. */
+    private static void time(String record, String encoding,
+                             Supplier<byte[]> encode, Function<byte[], ?> decode) {
+        byte[] bytes = encode.get();
+        List<Object> sink = new ArrayList<>();
+        for (int k = 0; k < ROUNDS / 10; k += 1) {
+            sink.add(decode.apply(encode.get()));
+        }
+        sink.clear();
+
+        long start = System.nanoTime();
+        for (int k = 0; k < ROUNDS; k += 1) {
+            bytes = encode.get();
+        }
+        double encodeTime = (System.nanoTime() - start) / 1e3 / ROUNDS;
+
+        start = System.nanoTime();
+        for (int k = 0; k < ROUNDS; k += 1) {
+            sink.add(decode.apply(bytes));
+            sink.clear();
+        }
+        double decodeTime = (System.nanoTime() - start) / 1e3 / ROUNDS;
+
+        System.out.printf("%8s %10s %10d %14.2f %14.2f\n",
+                record, encoding, bytes.length, encodeTime, decodeTime);
+    }
+
+    /** Return a random 40-digit hex id drawn from R. */
+    private static String randomId(Random r) {
+        byte[] raw = new byte[Pack.RAW_LENGTH];
+        r.nextBytes(raw);
+        return Pack.toHex(raw);
+    }
+}
@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Compares a flat object directory with one sharded by the first two hex
+ *  digits of each id: the cost of listing every object, and of looking
+ *  up random ids.
+ *  Usage: java gitlet.ShardingBenchmark [N...]
+ *  With no N, object counts of 10000 and 100000 are used; pass 1000000
+ *  explicitly for the large case, which creates a million empty files.
+ *  @author Yuhao Wang
+ */
+public class ShardingBenchmark {
+
+    /** Number of random lookups timed for each layout. */
+    private static final int LOOKUPS = 10000;
+
+    public static void main(String[] args) throws IOException {
+        int[] ns = Bench.ints(args, 0, 10000, 100000);
+        System.out.printf("%10s %8s %14s %18s\n", "N", "layout", "list (ms)", "lookup (us/op)");
+        System.out.printf("------------------------------------------------------\n");
+        for (int n : ns) {
+            List<String> ids = randomIds(n);
+            timeLayout(n, "flat", false, ids);
+            timeLayout(n, "sharded", true, ids);
+        }
+    }
+
+    /** Create an object directory holding empty files for IDS, sharded or
+     *  not, and print the time taken to list it and to look up ids. */
+    private static void timeLayout(int n, String name, boolean sharded,
+                                   List<String> ids) throws IOException {
+        File dir = Bench.tempDirectory();
+        try {
+            for (String id : ids) {
+                File f = sharded ? Repository.newObjectFile(dir, id) : Utils.join(dir, id);
+                f.createNewFile();
+            }
+
+            long start = System.nanoTime();
+            int listed = sharded ? Repository.looseIds(dir).size()
+                    : Utils.plainFilenamesIn(dir).size();
+            double listTime = (System.nanoTime() - start) / 1e6;
+            if (listed != n) {
+                throw new IllegalStateException("listed " + listed + " of " + n);
+            }
+
+            Random r = new Random(61);
+            start = System.nanoTime();
+            for (int k = 0; k < LOOKUPS; k += 1) {
+                String id = ids.get(r.nextInt(n));
+                File f = sharded ? Repository.objectFile(dir, id) : Utils.join(dir, id);
+                if (!f.exists()) {
+                    throw new IllegalStateException("missing " + id);
+                }
+            }
+            double lookupTime = (System.nanoTime() - start) / 1e3 / LOOKUPS;
+
+            System.out.printf("%10d %8s %14.1f %18.2f\n", n, name, listTime, lookupTime);
+        } finally {
+            Bench.delete(dir);
+        }
+    }
+
+    /** Return N distinct random 40-digit hex ids. */
+    private static List<String> randomIds(int n) {
+        Random r = new Random(n);
+        List<String> result = new ArrayList<>(n);
+        byte[] raw = new byte[Pack.RAW_LENGTH];
+        for (int i = 0; i < n; i += 1) {
+            r.nextBytes(raw);
+            result.add(Pack.toHex(raw));
+        }
+        return result;
+    }
+}
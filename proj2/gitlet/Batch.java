@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Runs a script of gitlet commands in one process.  Each line of the
+ *  script holds one command with its operands, as they would be given to
+ *  gitlet.Main; an operand containing spaces is written in double quotes,
+ *  inside which \" and \\ stand for a quote and a backslash.  Blank lines
+ *  and lines starting with # are skipped.
+ *
+ *  The head, branches and stage stay in memory for the whole script and
+ *  are written once at its end, or earlier at each line reading
+ *  checkpoint.  Each command prints exactly what it prints when run alone.
+ *
+ *  @author Yuhao Wang
+ */
+class Batch {
+
+    /** Run the script in FILE, or standard input if FILE is null. */
+    static void run(File file) {
+        try (Reader in = file == null
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : new StringReader(readContentsAsString(file))) {
+            run(new BufferedReader(in));
+        } catch (IOException excp) {
+            throw error("Cannot read script: %s", excp.getMessage());
+        }
+    }
+
+    /** Run each command read from IN. */
+    private static void run(BufferedReader in) throws IOException {
+        Repository.deferWrites = true;
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] args = split(line);
+                if (args.length == 0 || args[0].startsWith("#")) {
+                    continue;
+                }
+                switch (args[0]) {
+                    case "checkpoint":
+                        Repository.flush();
+                        break;
+                    case "batch":
+                    case "daemon":
+                        Utils.message("Cannot run %s from a batch.", args[0]);
+                        break;
+                    default:
+                        Main.main(args);
+                }
+            }
+        } finally {
+            Repository.deferWrites = false;
+            Repository.flush();
+        }
+    }
+
+    /** Return the operands on LINE, split at unquoted whitespace. */
+    static String[] split(String line) {
+        List<String> result = new ArrayList<>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                } else if (c == '\\' && i + 1 < line.length()
+                        && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+                    i += 1;
+                    word.append(line.charAt(i));
+                } else {
+                    word.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    result.add(word.toString());
+                    word = null;
+                }
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                if (c == '"') {
+                    quoted = true;
+                } else {
+                    word.append(c);
+                }
+            }
+        }
+        if (word != null) {
+            result.add(word.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** A compact, versioned binary encoding for the persistent gitlet state,
+ *  used in place of Java serialization.  Every record starts with a 4-byte
+ *  magic of three letters and a version byte; after it come unsigned
+ *  varints, strings as a varint length and UTF-8 bytes, and SHA-1 ids as
+ *  their 20 raw bytes.
+ *  @author Yuhao Wang
+ */
+class Binary {
+
+    /** Return true iff BYTES starts with the three letters of MAGIC. */
+    static boolean hasMagic(byte[] bytes, byte[] magic) {
+        return bytes.length >= 4 && Arrays.equals(bytes, 0, 3, magic, 0, 3);
+    }
+
+    /** Builds one encoded record. */
+    static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /** A record whose header is MAGIC followed by VERSION. */
+        Writer(byte[] magic, int version) {
+            out.write(magic, 0, 3);
+            out.write(version);
+        }
+
+        Writer writeByte(int b) {
+            out.write(b);
+            return this;
+        }
+
+        Writer writeVarint(long value) {
+            Delta.writeVarint(out, value);
+            return this;
+        }
+
+        Writer writeString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(b.length);
+            out.write(b, 0, b.length);
+            return this;
+        }
+
+        Writer writeId(String id) {
+            out.write(Pack.toRaw(id), 0, Pack.RAW_LENGTH);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /** Reads the fields of one encoded record. */
+    static class Reader {
+        private final byte[] data;
+        private final int[] pos = {4};
+        /** Version byte from the record's header. */
+        final int version;
+
+        /** A reader of BYTES, which must start with MAGIC. */
+        Reader(byte[] bytes, byte[] magic) {
+            if (!hasMagic(bytes, magic)) {
+                throw new IllegalArgumentException("Unrecognized record");
+            }
+            data = bytes;
+            version = bytes[3];
+        }
+
+        int readByte() {
+            return data[pos[0]++] & 0xff;
+        }
+
+        long readVarint() {
+            return Delta.readVarint(data, pos);
+        }
+
+        int readInt() {
+            return (int) readVarint();
+        }
+
+        String readString() {
+            int n = readInt();
+            String s = new String(data, pos[0], n, StandardCharsets.UTF_8);
+            pos[0] += n;
+            return s;
+        }
+
+        String readId() {
+            String id = Pack.toHex(Arrays.copyOfRange(data, pos[0], pos[0] + Pack.RAW_LENGTH));
+            pos[0] += Pack.RAW_LENGTH;
+            return id;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** Attribution of each line of a file to the commit that last changed
+ *  it, with results cached in .gitlet/blame (see gitlet-design.md).
+ *  @author Yuhao Wang
+ */
+class Blame {
+    /** Directory holding the cache of the current repository. */
+    static final File BLAME_DIR = join(Repository.GITLET_DIR, "blame");
+
+    private static final byte[] MAGIC = {'G', 'L', 'A'};
+    private static final int VERSION = 1;
+
+    /** The lines waiting at one commit: line FINALS[i] of the result is
+     *  line POSITIONS[i] of the commit's version, blob BLOB. */
+    private static class Suspect {
+        final String blob;
+        int[] finals = new int[16];
+        int[] positions = new int[16];
+        int size;
+
+        Suspect(String blob) {
+            this.blob = blob;
+        }
+
+        void add(int line, int position) {
+            if (size == finals.length) {
+                finals = Arrays.copyOf(finals, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            finals[size] = line;
+            positions[size] = position;
+            size += 1;
+        }
+    }
+
+    private final String path;
+    private final CommitGraph graph;
+    /** Commit id -> blob of PATH in it, or "" for none. */
+    private final HashMap<String, String> blobs = new HashMap<>();
+    /** Commits visited, diffs run, and lines resolved from the cache. */
+    private int visited;
+    private int diffs;
+    private int cachedLines;
+
+    private Blame(String path, CommitGraph graph) {
+        this.path = path;
+        this.graph = graph;
+    }
+
+    /** Return, for each line of file PATH in commit ID, the id of the
+     *  commit that last changed it, or null if the commit has no such
+     *  file. */
+    static String[] blame(String id, String path) {
+        CommitGraph graph = CommitGraph.graph();
+        if (!graph.contains(id)) {
+            graph = CommitGraph.rebuild();
+        }
+        Blame walk = new Blame(path, graph);
+        String blob = walk.blobAt(id);
+        if (blob == null) {
+            return null;
+        }
+        String[] result = readCache(id, blob);
+        if (result != null) {
+            Metrics.hit("blame.cache");
+        } else {
+            Metrics.miss("blame.cache");
+            result = walk.run(id, blob);
+            writeCache(id, blob, result);
+        }
+        Metrics.count("blame.visited", walk.visited);
+        Metrics.count("blame.diffs", walk.diffs);
+        Metrics.count("blame.cachedLines", walk.cachedLines);
+        Metrics.verbose("%d commits visited, %d diffs, %d lines from cache.",
+                walk.visited, walk.diffs, walk.cachedLines);
+        return result;
+    }
+
+    /** Return the attribution of the lines of BLOB, the version of PATH in
+     *  commit START. */
+    private String[] run(String start, String blob) {
+        int n = new Diff.Lines(Blob.contents(blob)).size();
+        String[] result = new String[n];
+        int left = n;
+        HashMap<Integer, Suspect> waiting = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) ->
+                graph.generation(x) != graph.generation(y)
+                ? Integer.compare(graph.generation(y), graph.generation(x))
+                : Integer.compare(y, x));
+        Suspect first = new Suspect(blob);
+        for (int i = 0; i < n; i += 1) {
+            first.add(i, i);
+        }
+        int startIndex = graph.indexOf(start);
+        waiting.put(startIndex, first);
+        queue.add(startIndex);
+        while (left > 0 && !queue.isEmpty()) {
+            int c = queue.poll();
+            Suspect suspect = waiting.remove(c);
+            String id = graph.idAt(c);
+            visited += 1;
+            String[] cached = c == startIndex ? null : readCache(id, suspect.blob);
+            if (cached != null) {
+                for (int i = 0; i < suspect.size; i += 1) {
+                    result[suspect.finals[i]] = cached[suspect.positions[i]];
+                }
+                cachedLines += suspect.size;
+                left -= suspect.size;
+                continue;
+            }
+            int[] parents = graph.parents(c);
+            for (int k = 0; k < parents.length && suspect.size > 0; k += 1) {
+                suspect = offer(id, suspect, parents[k], k == 0, waiting, queue);
+            }
+            for (int i = 0; i < suspect.size; i += 1) {
+                result[suspect.finals[i]] = id;
+            }
+            left -= suspect.size;
+        }
+        return result;
+    }
+
+    /** Pass the lines of SUSPECT, waiting at commit ID, that parent P also
+     *  has to P, adding P to WAITING and QUEUE if needed, and return the
+     *  lines left.  FIRSTPARENT is true iff P is ID's first parent. */
+    private Suspect offer(String id, Suspect suspect, int p, boolean firstParent,
+                          Map<Integer, Suspect> waiting, PriorityQueue<Integer> queue) {
+        String parentId = graph.idAt(p);
+        String parentBlob;
+        if (firstParent && !mayChange(id)) {
+            parentBlob = suspect.blob;
+        } else {
+            parentBlob = blobAt(parentId);
+        }
+        if (parentBlob == null) {
+            return suspect;
+        }
+        Suspect target = waiting.get(p);
+        if (parentBlob.equals(suspect.blob)) {
+            if (target == null) {
+                waiting.put(p, suspect);
+                queue.add(p);
+            } else {
+                for (int i = 0; i < suspect.size; i += 1) {
+                    target.add(suspect.finals[i], suspect.positions[i]);
+                }
+            }
+            return new Suspect(suspect.blob);
+        }
+        diffs += 1;
+        Diff.Lines[] lines = Diff.lines(Blob.contents(suspect.blob), Blob.contents(parentBlob));
+        int[] match = Diff.match(lines[0].ids, lines[1].ids);
+        Suspect rest = new Suspect(suspect.blob);
+        for (int i = 0; i < suspect.size; i += 1) {
+            int m = match[suspect.positions[i]];
+            if (m < 0) {
+                rest.add(suspect.finals[i], suspect.positions[i]);
+                continue;
+            }
+            if (target == null) {
+                target = new Suspect(parentBlob);
+                waiting.put(p, target);
+                queue.add(p);
+            }
+            target.add(suspect.finals[i], m);
+        }
+        return rest;
+    }
+
+    /** Return false if commit ID certainly has the same version of PATH as
+     *  its first parent. */
+    private boolean mayChange(String id) {
+        byte[] filter = ChangedPaths.filter(id);
+        return filter == null || ChangedPaths.mayContain(filter, path);
+    }
+
+    /** Return the blob of PATH in commit ID, or null if it has none. */
+    private String blobAt(String id) {
+        String blob = blobs.get(id);
+        if (blob == null) {
+            blob = blobOf(id, path);
+            blobs.put(id, blob == null ? "" : blob);
+        }
+        return blob == null || blob.isEmpty() ? null : blob;
+    }
+
+    /** Return the blob of file PATH in commit ID, or null if it has none,
+     *  reading only the trees on the way to PATH. */
+    static String blobOf(String id, String path) {
+        Commit commit = Commit.readCommit(id);
+        Map<String, Tree.Entry> entries = commit.tree == null ? null : Tree.entries(commit.tree);
+        if (entries == null) {
+            return commit.getContextHash().get(path);
+        }
+        Tree.Entry entry = Tree.entry(entries, path);
+        return entry == null || entry.isDir ? null : entry.id;
+    }
+
+    /* CACHE */
+
+    /** Return the cached attribution of blob BLOB at commit ID, or null. */
+    private static String[] readCache(String id, String blob) {
+        File f = Repository.objectFile(BLAME_DIR, sha1(id, blob));
+        if (!f.isFile()) {
+            return null;
+        }
+        Binary.Reader r = new Binary.Reader(readContents(f), MAGIC);
+        String[] commits = new String[r.readInt()];
+        for (int i = 0; i < commits.length; i += 1) {
+            commits[i] = r.readId();
+        }
+        String[] result = new String[r.readInt()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = commits[r.readInt()];
+        }
+        return result;
+    }
+
+    /** Cache RESULT as the attribution of blob BLOB at commit ID. */
+    private static void writeCache(String id, String blob, String[] result) {
+        HashMap<String, Integer> index = new HashMap<>();
+        List<String> commits = new ArrayList<>();
+        for (String c : result) {
+            if (!index.containsKey(c)) {
+                index.put(c, commits.size());
+                commits.add(c);
+            }
+        }
+        Binary.Writer w = new Binary.Writer(MAGIC, VERSION);
+        w.writeVarint(commits.size());
+        for (String c : commits) {
+            w.writeId(c);
+        }
+        w.writeVarint(result.length);
+        for (String c : result) {
+            w.writeVarint(index.get(c));
+        }
+        BLAME_DIR.mkdir();
+        writeContents(Repository.newObjectFile(BLAME_DIR, sha1(id, blob)), w.toByteArray());
+    }
+}
@@ -1,7 +1,29 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static gitlet.Utils.*;
 
@@ -9,62 +31,475 @@ import static gitlet.Utils.*;
  * The class is to be used to represent the usage of
  * our files.
  *
+ * A blob is named by the SHA-1 of the raw bytes of the file it holds.  It
+ * is stored as a 4-byte header ("GLB" and an encoding byte) followed by
+ * those bytes, either as they are (RAW) or Deflate-compressed (DEFLATE),
+ * and is always streamed in and out rather than held in memory.  A new
+ * revision of a file may instead be stored as a delta (DELTA) against the
+ * blob the same path had in the parent commit; such blobs are rebuilt on
+ * read, with recently used bases kept in a small cache.  Blobs written by
+ * earlier versions are Java-serialized Blob objects whose contents field
+ * holds the file; they still read.
+ *
  * @author Yuhao Wang
  */
 
 public class Blob implements Serializable {
+    /** Fixed so that blobs written by earlier versions still read. */
+    private static final long serialVersionUID = 4111958293674944693L;
+
+    /** File contents, only present for blobs written by earlier versions. */
     public String contents;
     public String sha1;
 
     static final File BLOB_DIR = Utils.join(Repository.GITLET_DIR, "blobs");
     static final File STAGED_DIR = join(Repository.GITLET_DIR, "stage");
 
-    public Blob(String contents) {
-        this.contents = contents;
-        this.sha1 = sha1((Object) serialize(this));
+    /** Header of a stored blob. */
+    private static final byte[] MAGIC = {'G', 'L', 'B'};
+    private static final int HEADER_LENGTH = 4;
+    /** Encoding byte: raw file bytes follow the header. */
+    static final byte RAW = 0;
+    /** Encoding byte: a Deflate stream of the file bytes follows the header. */
+    static final byte DEFLATE = 1;
+    /** Encoding byte: the base blob's raw id, the length of the delta chain
+     *  and a Deflate stream of Delta instructions follow the header. */
+    static final byte DELTA = 2;
+    /** Encoding used for new blobs. */
+    static final byte ENCODING = DEFLATE;
+    /** Longest chain of deltas allowed before a full blob is stored. */
+    static final int MAX_DELTA_DEPTH = 10;
+    /** Largest file that is considered for delta storage. */
+    static final int MAX_DELTA_SIZE = 16 << 20;
+    /** Upper bound on the bytes held by the base cache. */
+    private static final long CACHE_LIMIT = 64L << 20;
+    /** Recently used delta bases, id -> file bytes, in access order.
+     *  Guarded by its own lock, since blobs may be read from several
+     *  threads at once. */
+    private static final LinkedHashMap<String, byte[]> BASES =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBytes;
+    /** First bytes of a Java-serialized (legacy) blob. */
+    private static final int SERIAL_MAGIC = 0xACED;
+    /** Size of the copy buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Blob(String sha1) {
+        this.sha1 = sha1;
+    }
+
+    /** Stream FILE into the stage, returning its blob id. */
+    public static String stageFile(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return store(in, STAGED_DIR, ENCODING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store CONTENTS in the stage, returning its blob id. */
+    public static String stageBytes(byte[] contents) {
+        return store(Channels.newChannel(new ByteArrayInputStream(contents)),
+                STAGED_DIR, ENCODING);
+    }
+
+    /** Copy everything readable from IN into a new blob in DIR stored with
+     *  ENCODING, hashing the bytes as they pass, and return the blob id. */
+    static String store(ReadableByteChannel in, File dir, byte encoding) {
+        File tmp = null;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            MessageDigest md = sha1Digest();
+            tmp = File.createTempFile("tmp-blob", null, dir);
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+                buf.put(MAGIC).put(encoding).flip();
+                writeFully(out, buf);
+                buf.clear();
+                OutputStream body = null;
+                if (encoding == DEFLATE) {
+                    body = new DeflaterOutputStream(Channels.newOutputStream(out),
+                            deflater, BUFFER_SIZE);
+                }
+                while (in.read(buf) != -1) {
+                    buf.flip();
+                    Metrics.count("io.bytesRead", buf.limit());
+                    md.update(buf.array(), 0, buf.limit());
+                    if (body != null) {
+                        body.write(buf.array(), 0, buf.limit());
+                    } else {
+                        writeFully(out, buf);
+                    }
+                    buf.clear();
+                }
+                if (body != null) {
+                    body.close();
+                }
+            }
+            String hash = Pack.toHex(md.digest());
+            File f = join(dir, hash);
+            if (f.exists() || exists(hash)) {
+                tmp.delete();
+            } else {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                if (Metrics.enabled()) {
+                    Metrics.count("io.filesWritten");
+                    Metrics.count("io.bytesWritten", f.length());
+                }
+            }
+            return hash;
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Move staged blob HASH into ~/.gitlet/blobs, unless it is already
+     *  stored.  If BASE, the blob the same path had in the parent commit,
+     *  is not null, HASH is stored as a delta against it when that is much
+     *  smaller. */
+    public static void commitStaged(String hash, String base) {
+        if (exists(hash)) {
+            return;
+        }
+        File staged = join(STAGED_DIR, hash);
+        if (!staged.exists()) {
+            throw new IllegalArgumentException("No staged blob " + hash);
+        }
+        if (base != null && !base.equals(hash) && staged.length() <= MAX_DELTA_SIZE) {
+            byte[] delta = deltaAgainst(hash, base, staged.length());
+            if (delta != null) {
+                writeContents(Repository.newObjectFile(BLOB_DIR, hash), delta);
+                staged.delete();
+                return;
+            }
+        }
+        try {
+            Files.move(staged.toPath(), Repository.newObjectFile(BLOB_DIR, hash).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the stored form of blob HASH as a delta against BASE, or null
+     *  if the chain would be too long or the delta is not under half of
+     *  FULLSIZE, the size of the full stored blob. */
+    private static byte[] deltaAgainst(String hash, String base, long fullSize) {
+        int depth = depthOf(base);
+        if (depth < 0 || depth >= MAX_DELTA_DEPTH) {
+            return null;
+        }
+        byte[] target = contents(hash);
+        if (target.length > MAX_DELTA_SIZE) {
+            return null;
+        }
+        byte[] source = contents(base);
+        if (source.length > MAX_DELTA_SIZE) {
+            return null;
+        }
+        byte[] delta = deflate(Delta.create(source, target));
+        int headerLength = HEADER_LENGTH + Pack.RAW_LENGTH + 1;
+        if (headerLength + delta.length >= fullSize / 2) {
+            return null;
+        }
+        ByteBuffer result = ByteBuffer.allocate(headerLength + delta.length);
+        result.put(MAGIC).put(DELTA).put(Pack.toRaw(base)).put((byte) (depth + 1));
+        result.put(delta);
+        return result.array();
+    }
+
+    /** Return the id of the blob that blob HASH is stored as a delta
+     *  against, or null if it is stored whole. */
+    static String baseOf(String hash) {
+        try (InputStream in = readBlob(hash).openRaw()) {
+            return baseOf(in.readNBytes(HEADER_LENGTH + Pack.RAW_LENGTH));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the id of the blob that the blob stored as STORED, or as a
+     *  prefix of it, is a delta against, or null if it is stored whole. */
+    static String baseOf(byte[] stored) {
+        if (stored.length >= HEADER_LENGTH + Pack.RAW_LENGTH && stored[0] == MAGIC[0]
+                && stored[1] == MAGIC[1] && stored[2] == MAGIC[2] && stored[3] == DELTA) {
+            return Pack.toHex(Arrays.copyOfRange(stored, HEADER_LENGTH,
+                                                 HEADER_LENGTH + Pack.RAW_LENGTH));
+        }
+        return null;
+    }
+
+    /** Return the length of the delta chain below blob HASH: 0 for a full
+     *  blob, or -1 if it is not stored. */
+    static int depthOf(String hash) {
+        if (!join(STAGED_DIR, hash).exists() && !exists(hash)) {
+            return -1;
+        }
+        try (InputStream in = readBlob(hash).openRaw()) {
+            byte[] header = in.readNBytes(HEADER_LENGTH + Pack.RAW_LENGTH + 1);
+            if (header.length == HEADER_LENGTH + Pack.RAW_LENGTH + 1
+                    && header[0] == MAGIC[0] && header[3] == DELTA) {
+                return header[HEADER_LENGTH + Pack.RAW_LENGTH];
+            }
+            return 0;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the file bytes of blob HASH, through the base cache. */
+    static byte[] contents(String hash) {
+        byte[] result;
+        synchronized (BASES) {
+            result = BASES.get(hash);
+        }
+        if (result != null) {
+            Metrics.hit("blob.cache");
+            return result;
+        }
+        try (InputStream in = readBlob(hash).open()) {
+            result = in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (result.length <= MAX_DELTA_SIZE) {
+            cache(hash, result);
+        }
+        return result;
     }
 
-    /** write blob to ~/.gitlet/blobs */
-    public void writeBlob() {
-        String hash = this.sha1;
-        File f = Utils.join(BLOB_DIR, hash);
-        writeObject(f, this);
+    /** Add CONTENTS of blob HASH to the base cache, evicting the least
+     *  recently used entries beyond CACHE_LIMIT. */
+    private static void cache(String hash, byte[] contents) {
+        synchronized (BASES) {
+            byte[] old = BASES.put(hash, contents);
+            cachedBytes += contents.length - (old == null ? 0 : old.length);
+            Iterator<byte[]> oldest = BASES.values().iterator();
+            while (cachedBytes > CACHE_LIMIT && oldest.hasNext()) {
+                cachedBytes -= oldest.next().length;
+                oldest.remove();
+            }
+        }
     }
 
-    /** read blob from ~ */
+    /** Return the blob HASH.  Its bytes are read only when it is opened,
+     *  from the stage, loose objects or packs, in that order. */
     public static Blob readBlob(String hash) {
-        File f = Utils.join(BLOB_DIR, hash);
-        return readObject(f, Blob.class);
+        Metrics.count("blob.reads");
+        return new Blob(hash);
+    }
+
+    /** Return true iff blob HASH is stored loose or in a pack. */
+    public static boolean exists(String hash) {
+        Metrics.count("io.stats");
+        return Repository.objectFile(BLOB_DIR, hash).exists() || Pack.has(Pack.BLOB, hash);
+    }
+
+    /** Return a stream over the file bytes of this blob. */
+    public InputStream open() {
+        byte[] cached;
+        synchronized (BASES) {
+            cached = BASES.get(sha1);
+        }
+        if (cached != null) {
+            Metrics.hit("blob.cache");
+            return new ByteArrayInputStream(cached);
+        }
+        Metrics.miss("blob.cache");
+        try {
+            return openStored(openRaw(), Blob::contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream over the stored form of this blob. */
+    private InputStream openRaw() {
+        File staged = join(STAGED_DIR, sha1);
+        File f = Repository.objectFile(BLOB_DIR, sha1);
+        try {
+            InputStream in;
+            if (staged.exists()) {
+                in = Files.newInputStream(staged.toPath());
+                countRead(staged);
+            } else if (f.exists()) {
+                in = Files.newInputStream(f.toPath());
+                countRead(f);
+            } else {
+                in = Pack.stream(Pack.BLOB, sha1);
+                if (in == null) {
+                    throw new IllegalArgumentException("No blob " + sha1);
+                }
+            }
+            return in;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Count the reading of the whole of FILE. */
+    private static void countRead(File file) {
+        if (Metrics.enabled()) {
+            Metrics.count("io.filesRead");
+            Metrics.count("io.bytesRead", file.length());
+        }
+    }
+
+    /** Return the file bytes held in the stored blob STORED, taking the
+     *  file bytes of any delta base from BASES. */
+    static byte[] decode(byte[] stored, Function<String, byte[]> bases) {
+        try (InputStream in = openStored(new ByteArrayInputStream(stored), bases)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
-    /** delete blob */
-    public void deleteBlob() {
-        File f = Utils.join(BLOB_DIR, sha1);
-        f.delete();
+    /** Return a stream over the file bytes held in the stored blob IN,
+     *  taking the file bytes of a delta base, by id, from BASES. */
+    static InputStream openStored(InputStream in, Function<String, byte[]> bases)
+            throws IOException {
+        in = new BufferedInputStream(in, BUFFER_SIZE);
+        in.mark(HEADER_LENGTH);
+        byte[] header = in.readNBytes(HEADER_LENGTH);
+        if (header.length >= 2
+                && ((header[0] & 0xff) << 8 | (header[1] & 0xff)) == SERIAL_MAGIC) {
+            in.reset();
+            Blob legacy;
+            try (InputStream all = in) {
+                legacy = deserialize(all.readAllBytes(), Blob.class);
+            }
+            return new ByteArrayInputStream(legacy.contents.getBytes(StandardCharsets.UTF_8));
+        }
+        if (header.length != HEADER_LENGTH || header[0] != MAGIC[0]
+                || header[1] != MAGIC[1] || header[2] != MAGIC[2]) {
+            in.close();
+            throw new IllegalArgumentException("Corrupt blob");
+        }
+        switch (header[3]) {
+            case RAW:
+                return in;
+            case DEFLATE:
+                Inflater inflater = new Inflater();
+                return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            case DELTA:
+                String base = Pack.toHex(in.readNBytes(Pack.RAW_LENGTH));
+                in.read();
+                byte[] delta;
+                try (InputStream body = in) {
+                    delta = inflate(body.readAllBytes(), 0);
+                }
+                return new ByteArrayInputStream(Delta.apply(bases.apply(base), delta));
+            default:
+                in.close();
+                throw new IllegalArgumentException("Unknown blob encoding");
+        }
     }
 
-    /** write blob to ~/.gitlet/stage */
-    public void writeBlobToStage() {
-        String hash = this.sha1;
-        File f = Utils.join(STAGED_DIR, hash);
-        writeObject(f, this);
+    /** Copy the file bytes of this blob to OUT. */
+    public void copyTo(OutputStream out) {
+        try (InputStream in = open()) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
-    
-    /** delete blob from stage */
-    public void deleteBlobFromStage() {
-        File f = Utils.join(STAGED_DIR, sha1);
-        f.delete();
+
+    /** Write this blob's bytes to FILE, creating or overwriting it, or an
+     *  empty directory in its place. */
+    public void writeTo(File file) {
+        if (file.isDirectory() && !file.delete()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+            parent.mkdirs();
+        }
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            copyTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
-    
-    /** read blob from stage */
-    public static Blob readBlobFromStage(String hash) {
-        File f = Utils.join(STAGED_DIR, hash);
-        if (!f.exists()) {
-            // 如果暂存文件不存在，尝试从对象库读取
-            return readBlob(hash);
+
+    /** Return true iff blob HASH is stored as a serialized object, as the
+     *  first versions of gitlet wrote blobs. */
+    static boolean isLegacy(String hash) {
+        try (InputStream in = readBlob(hash).openRaw()) {
+            byte[] header = in.readNBytes(2);
+            return header.length == 2
+                && ((header[0] & 0xff) << 8 | (header[1] & 0xff)) == SERIAL_MAGIC;
+        } catch (IOException | IllegalArgumentException excp) {
+            return false;
         }
-        return readObject(f, Blob.class);
     }
 
+    /** Return true iff FILE holds exactly the bytes of this blob. */
+    public boolean sameContents(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (InputStream mine = open();
+             InputStream theirs = new BufferedInputStream(
+                     Files.newInputStream(file.toPath()), BUFFER_SIZE)) {
+            byte[] a = new byte[BUFFER_SIZE];
+            byte[] b = new byte[BUFFER_SIZE];
+            while (true) {
+                int n = mine.readNBytes(a, 0, BUFFER_SIZE);
+                int m = theirs.readNBytes(b, 0, BUFFER_SIZE);
+                if (n != m || !Arrays.equals(a, 0, n, b, 0, m)) {
+                    return false;
+                }
+                if (n < BUFFER_SIZE) {
+                    return true;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
 
+    /** Return the blob id that FILE's contents would have, or null if FILE
+     *  is not a regular file. */
+    static String hashFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = sha1Digest();
+            byte[] buf = new byte[BUFFER_SIZE];
+            long length = 0;
+            for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                length += n;
+            }
+            Metrics.count("io.filesRead");
+            Metrics.count("io.bytesRead", length);
+            return Pack.toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** delete blob HASH from stage */
+    public static void deleteFromStage(String hash) {
+        join(STAGED_DIR, hash).delete();
+    }
 }
@@ -3,12 +3,33 @@ package gitlet;
 import java.io.File;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static gitlet.Utils.*;
 
+/** The branches and the current branch.  They are stored in the Binary
+ *  encoding as
+ *      "GLR" VERSION  CURRENT  N (NAME COMMIT-ID)*N
+ *  in name order.  Branches written by earlier versions are serialized
+ *  objects and still read.
+ */
 public class Branch implements Serializable {
+    /** Fixed so that branches written by earlier versions still read. */
+    private static final long serialVersionUID = 3077077115795686013L;
+
     public static final File BRANCHES = join(Repository.GITLET_DIR, "branches");
 
+    private static final byte[] MAGIC = {'G', 'L', 'R'};
+    private static final int VERSION = 1;
+
+    /** The branches as this process last read or wrote them, and the
+     *  Repository.stamp of the file they match. */
+    private static Branch cached;
+    private static String cachedStamp;
+    /** True iff CACHED has changes that are not yet written. */
+    private static boolean dirty;
+
     /** We need current_branch, branches */
     public String current_branch;
     public HashMap<String, String> branches;
@@ -20,11 +41,72 @@ public class Branch implements Serializable {
 
     /** read Branch */
     public static Branch readBranch() {
-        return readObject(BRANCHES, Branch.class);
+        if (dirty) {
+            return cached.copy();
+        }
+        String stamp = Repository.stamp(BRANCHES);
+        if (cached == null || stamp == null || !stamp.equals(cachedStamp)) {
+            Metrics.miss("branches");
+            cached = decode(readContents(BRANCHES));
+            cachedStamp = stamp;
+        } else {
+            Metrics.hit("branches");
+        }
+        return cached.copy();
     }
 
     /** write Branch */
     public void writeBranch() {
-        writeObject(BRANCHES, this);
+        cached = copy();
+        dirty = true;
+        if (!Repository.deferWrites) {
+            flush();
+        }
+    }
+
+    /** Write the branches if they have unwritten changes. */
+    static void flush() {
+        if (dirty) {
+            Repository.replace(BRANCHES, cached.encode());
+            cachedStamp = Repository.stamp(BRANCHES);
+            dirty = false;
+        }
+    }
+
+    /** Return true iff the branches have been written or are waiting to
+     *  be. */
+    static boolean exists() {
+        return dirty || BRANCHES.exists();
+    }
+
+    /** Return a copy of this Branch that shares no mutable state with it. */
+    Branch copy() {
+        return new Branch(current_branch, new HashMap<>(branches));
+    }
+
+    /** Return the binary encoding of this Branch. */
+    byte[] encode() {
+        Binary.Writer w = new Binary.Writer(MAGIC, VERSION);
+        w.writeString(current_branch);
+        w.writeVarint(branches.size());
+        for (Map.Entry<String, String> e : new TreeMap<>(branches).entrySet()) {
+            w.writeString(e.getKey()).writeId(e.getValue());
+        }
+        return w.toByteArray();
+    }
+
+    /** Return the Branch held in the stored bytes BYTES. */
+    static Branch decode(byte[] bytes) {
+        if (!Binary.hasMagic(bytes, MAGIC)) {
+            return deserialize(bytes, Branch.class);
+        }
+        Binary.Reader r = new Binary.Reader(bytes, MAGIC);
+        String current = r.readString();
+        HashMap<String, String> branches = new HashMap<>();
+        for (int n = r.readInt(); n > 0; n -= 1) {
+            String name = r.readString();
+            branches.put(name, r.readId());
+        }
+        return new Branch(current, branches);
     }
 }
@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** A Bloom filter, per commit, of the paths it changed, so that the
+ *  history of one path reads the trees of only the commits that may have
+ *  touched it.  The file format is in gitlet-design.md.
+ *  @author Yuhao Wang
+ */
+class ChangedPaths {
+    /** The filter file of the current repository. */
+    static final File FILTER_FILE = join(Repository.GITLET_DIR, "changed-paths");
+
+    private static final int MAGIC = 0x47424c4d; // "GBLM"
+    private static final int VERSION = 1;
+    static final int BITS_PER_PATH = 10;
+    static final int HASHES = 7;
+    static final int MAX_PATHS = 512;
+    /** Seeds of the two hashes that the HASHES indices are built from. */
+    private static final int SEED1 = 0x293ae76f;
+    private static final int SEED2 = 0x7e646e2c;
+    /** The filter of a commit that may have changed any path. */
+    private static final byte[] ALL = new byte[0];
+
+    /** The filters of the current repository by commit id, loaded on first
+     *  use, and the Repository.stamp of FILTER_FILE they match. */
+    private static HashMap<String, byte[]> loaded;
+    private static String loadedStamp;
+
+    /** Return the filter of commit ID, or null if it has none yet. */
+    static byte[] filter(String id) {
+        String stamp = Repository.stamp(FILTER_FILE);
+        if (loaded == null || stamp == null || !stamp.equals(loadedStamp)) {
+            loaded = stamp == null ? new HashMap<>() : read(FILTER_FILE);
+            loadedStamp = stamp;
+        }
+        return loaded.get(id);
+    }
+
+    /** Compute the filter of COMMIT against PARENT, its first parent or
+     *  null, record it and return it. */
+    static byte[] record(Commit commit, Commit parent) {
+        Collection<String> files = parent == null
+            ? commit.getContextHash().keySet() : Tree.diff(parent, commit).keySet();
+        Set<String> paths = new HashSet<>();
+        for (String file : files) {
+            for (int i = file.indexOf('/'); i >= 0; i = file.indexOf('/', i + 1)) {
+                paths.add(file.substring(0, i));
+            }
+            paths.add(file);
+        }
+        byte[] filter = create(paths);
+        append(commit.sha, filter);
+        return filter;
+    }
+
+    /** Return the filter of PATHS. */
+    static byte[] create(Collection<String> paths) {
+        if (paths.size() > MAX_PATHS) {
+            return ALL;
+        }
+        byte[] bits = new byte[Math.max(8, (paths.size() * BITS_PER_PATH + 7) / 8)];
+        for (String path : paths) {
+            long bitCount = bits.length * 8L;
+            byte[] key = path.getBytes(StandardCharsets.UTF_8);
+            int h1 = murmur3(key, SEED1);
+            int h2 = murmur3(key, SEED2);
+            for (int i = 0; i < HASHES; i += 1) {
+                long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+                bits[(int) (bit >>> 3)] |= 1 << (bit & 7);
+            }
+        }
+        return bits;
+    }
+
+    /** Return false if the commit whose filter is FILTER certainly did not
+     *  change PATH, and true if it may have. */
+    static boolean mayContain(byte[] filter, String path) {
+        if (filter.length == 0) {
+            return true;
+        }
+        long bitCount = filter.length * 8L;
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int h1 = murmur3(key, SEED1);
+        int h2 = murmur3(key, SEED2);
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            if ((filter[(int) (bit >>> 3)] & 1 << (bit & 7)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the 32-bit MurmurHash3 of KEY with SEED. */
+    private static int murmur3(byte[] key, int seed) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int h = seed;
+        int blocks = key.length / 4;
+        for (int i = 0; i < blocks; i += 1) {
+            int k = key[4 * i] & 0xff | (key[4 * i + 1] & 0xff) << 8
+                | (key[4 * i + 2] & 0xff) << 16 | (key[4 * i + 3] & 0xff) << 24;
+            k *= c1;
+            k = Integer.rotateLeft(k, 15);
+            k *= c2;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        int tail = blocks * 4;
+        int rem = key.length & 3;
+        if (rem >= 3) {
+            k ^= (key[tail + 2] & 0xff) << 16;
+        }
+        if (rem >= 2) {
+            k ^= (key[tail + 1] & 0xff) << 8;
+        }
+        if (rem >= 1) {
+            k ^= key[tail] & 0xff;
+            k *= c1;
+            k = Integer.rotateLeft(k, 15);
+            k *= c2;
+            h ^= k;
+        }
+        h ^= key.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /* PERSISTENCE */
+
+    /** Append the record of commit ID with filter FILTER to FILTER_FILE,
+     *  creating it if needed. */
+    private static void append(String id, byte[] filter) {
+        boolean exists = FILTER_FILE.exists();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(FILTER_FILE, true)))) {
+            if (!exists) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.write(Pack.toRaw(id));
+            out.writeInt(filter == ALL ? -1 : filter.length);
+            out.write(filter);
+        } catch (IOException excp) {
+            throw error("Cannot write changed paths: %s", excp.getMessage());
+        }
+        if (loaded != null && loadedStamp != null) {
+            loaded.put(id, filter);
+            loadedStamp = Repository.stamp(FILTER_FILE);
+        }
+    }
+
+    /** Return the filters stored in FILE by commit id.  A record cut short
+     *  by an interrupted write is ignored. */
+    private static HashMap<String, byte[]> read(File file) {
+        HashMap<String, byte[]> result = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Corrupt changed paths.");
+            }
+            byte[] raw = new byte[Pack.RAW_LENGTH];
+            while (true) {
+                try {
+                    in.readFully(raw);
+                    int length = in.readInt();
+                    byte[] filter = length < 0 ? ALL : new byte[length];
+                    in.readFully(filter);
+                    result.put(Pack.toHex(raw), filter);
+                } catch (EOFException excp) {
+                    break;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read changed paths: %s", excp.getMessage());
+        }
+        return result;
+    }
+}
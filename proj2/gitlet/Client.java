@@ -0,0 +1,32 @@
+package gitlet;
+
+/** Runs one gitlet command through the daemon serving the repository in
+ *  the current directory, or directly when no daemon is running.  Either
+ *  way the output and exit status are exactly those of gitlet.Main,
+ *  which sees the GITLET_ environment variables of this process.
+ *  Usage: java gitlet.Client ARGS, with ARGS as for gitlet.Main.
+ *  Start a daemon with java gitlet.Main daemon, and stop it with
+ *  java gitlet.Client daemon stop.
+ *  @author Yuhao Wang
+ */
+public class Client {
+
+    public static void main(String[] args) {
+        if (args == null || args.length == 0 || readsInput(args)) {
+            Main.main(args);
+            return;
+        }
+        int status = Daemon.forward(args);
+        if (status < 0) {
+            Main.main(args);
+        } else if (status > 0) {
+            System.exit(status);
+        }
+    }
+
+    /** Return true iff the command ARGS reads standard input, which only
+     *  this process can do. */
+    private static boolean readsInput(String[] args) {
+        return args[0].equals("batch") && (args.length == 1 || args[1].equals("-"));
+    }
+}
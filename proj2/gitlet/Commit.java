@@ -13,18 +13,38 @@ import java.text.SimpleDateFormat;
  *  @author Yuhao Wang
  */
 public class Commit implements Serializable {
+    /** Fixed so that commits written by earlier versions still read. */
+    private static final long serialVersionUID = 4212396411639907073L;
+
     /**
      * We need parent, hashes, timestamp and message.
      */
 
     public String message; // 提交信息
-    public HashMap<String, String> contextHash; // File names
+    /** File names -> blob ids.  Only commits written by earlier versions
+     *  store this inline; others load it from TREE on first use. */
+    public HashMap<String, String> contextHash;
+    /** Id of the root Tree of tracked files, or for commits written
+     *  before trees, of their Manifest. */
+    public String tree;
     public List<String> parent; // Parent commit hash
     public String timestamp; // Timestamp
     public String sha;
 
     static final File COMMIT_DIR = Utils.join(Repository.GITLET_DIR, "commits");
 
+    /** A stored commit starts with "GLC" and a version byte.  Version 2
+     *  is the Binary encoding
+     *      MESSAGE TIMESTAMP  N PARENT-ID*N  HAS-TREE [TREE-ID]
+     *  and version 1 a Deflate stream of the serialized commit.  Commits
+     *  written before either are plain serialized objects; all still read. */
+    private static final byte[] MAGIC = {'G', 'L', 'C'};
+    private static final int SERIALIZED_VERSION = 1;
+    private static final int VERSION = 2;
+
+    private Commit() {
+    }
+
     public Commit(String message, HashMap<String, String> contextHash, List<String> parents) {
         this.message = message;
         this.parent = parents;
@@ -43,20 +63,134 @@ public class Commit implements Serializable {
         return sdf.format(new Date());
     }
 
-    /** read a Commit by the sha1. */
+    /** read a Commit by the sha1, looking at loose objects first and then packs. */
     public static Commit readCommit(String hash1) {
         Commit m;
-        File f = join(COMMIT_DIR, hash1);
-        m = readObject(f, Commit.class);
+        Metrics.count("commit.reads");
+        File f = Repository.objectFile(COMMIT_DIR, hash1);
+        byte[] stored;
+        if (f.exists()) {
+            stored = readContents(f);
+        } else {
+            stored = Pack.find(Pack.COMMIT, hash1);
+            if (stored == null) {
+                throw new IllegalArgumentException("No commit " + hash1);
+            }
+        }
+        m = decode(stored);
+        m.sha = hash1;
         return m;
     }
 
-    /** write a Commit. */
+    /** Return true iff commit HASH1 is stored loose or in a pack. */
+    public static boolean exists(String hash1) {
+        Metrics.count("io.stats");
+        return Repository.objectFile(COMMIT_DIR, hash1).exists() || Pack.has(Pack.COMMIT, hash1);
+    }
+
+    /** Return up to LIMIT ids of commits, loose or packed, that start with
+     *  PREFIX, in sorted order.  Only the loose fan-out directory for the
+     *  prefix is listed, and each pack index is binary searched. */
+    public static List<String> idsWithPrefix(String prefix, int limit) {
+        TreeSet<String> ids = new TreeSet<>(Pack.idsWithPrefix(Pack.COMMIT, prefix, limit));
+        if (prefix.length() >= 2) {
+            List<String> names = plainFilenamesIn(join(COMMIT_DIR, prefix.substring(0, 2)));
+            if (names != null) {
+                String rest = prefix.substring(2);
+                int i = Math.max(0, -Collections.binarySearch(names, rest) - 1);
+                for (; i < names.size() && names.get(i).startsWith(rest); i += 1) {
+                    ids.add(prefix.substring(0, 2) + names.get(i));
+                }
+            }
+        } else {
+            for (String id : Repository.looseIds(COMMIT_DIR)) {
+                if (id.startsWith(prefix)) {
+                    ids.add(id);
+                }
+            }
+        }
+        List<String> result = new ArrayList<>(ids);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /** Return the ids of all commits, loose and packed, in sorted order. */
+    public static List<String> allCommitIds() {
+        TreeSet<String> ids = new TreeSet<>(Pack.ids(Pack.COMMIT));
+        ids.addAll(Repository.looseIds(COMMIT_DIR));
+        return new ArrayList<>(ids);
+    }
+
+    /** Return the tracked files of this commit, name -> blob id, loading
+     *  its tree on first use. */
+    public HashMap<String, String> getContextHash() {
+        if (contextHash == null) {
+            contextHash = tree == null ? new HashMap<>() : Tree.read(tree);
+        }
+        return contextHash;
+    }
+
+    /** write a Commit: the trees not yet stored first, then the header,
+     *  which holds only the root tree's id, then its records in the commit
+     *  graph, message index and changed paths. */
     public void writeCommit() {
-        String hash = sha1((Object) serialize(this));
+        HashMap<String, String> files = getContextHash();
+        Commit first = parent == null ? null : readCommit(parent.get(0));
+        tree = Metrics.time("commit.trees",
+                () -> Tree.write(files, first == null ? null : first.tree));
+        contextHash = null;
+        byte[] bytes = encode();
+        String hash = sha1((Object) bytes);
         this.sha = hash;
-        File f = join(COMMIT_DIR, hash);
-        writeObject(f, this);
+        File f = Repository.newObjectFile(COMMIT_DIR, hash);
+        writeContents(f, bytes);
+        contextHash = files;
+        CommitGraph.append(hash, parent);
+        MessageIndex.add(message, hash);
+        ChangedPaths.record(this, first);
+    }
+
+    /** Return the binary encoding of this commit's header. */
+    byte[] encode() {
+        Binary.Writer w = new Binary.Writer(MAGIC, VERSION);
+        w.writeString(message).writeString(timestamp);
+        w.writeVarint(parent == null ? 0 : parent.size());
+        if (parent != null) {
+            for (String p : parent) {
+                w.writeId(p);
+            }
+        }
+        w.writeByte(tree == null ? 0 : 1);
+        if (tree != null) {
+            w.writeId(tree);
+        }
+        return w.toByteArray();
+    }
+
+    /** Return the commit held in the stored bytes STORED. */
+    static Commit decode(byte[] stored) {
+        if (!Binary.hasMagic(stored, MAGIC)) {
+            return deserialize(stored, Commit.class);
+        }
+        Binary.Reader r = new Binary.Reader(stored, MAGIC);
+        if (r.version == SERIALIZED_VERSION) {
+            return deserialize(inflate(stored, 4), Commit.class);
+        } else if (r.version != VERSION) {
+            throw new IllegalArgumentException("Unknown commit encoding");
+        }
+        Commit c = new Commit();
+        c.message = r.readString();
+        c.timestamp = r.readString();
+        int n = r.readInt();
+        if (n > 0) {
+            c.parent = new ArrayList<>(n);
+            for (int i = 0; i < n; i += 1) {
+                c.parent.add(r.readId());
+            }
+        }
+        if (r.readByte() == 1) {
+            c.tree = r.readId();
+        }
+        return c;
     }
 
 }
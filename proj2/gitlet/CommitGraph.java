@@ -0,0 +1,385 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** The commit graph: every commit's parents and generation number, kept
+ *  in one file so that history walks need not read commit objects.
+ *
+ *  The file (.gitlet/commit-graph) is "GCGR" VERSION followed by one
+ *  fixed-size record per commit,
+ *      ID(20 bytes)  PARENT1  PARENT2  GENERATION
+ *  where the parents are record indices (-1 for none) and the generation
+ *  is 1 for a root commit and otherwise one more than the largest
+ *  generation of its parents.  A commit's parents always precede it, so
+ *  new commits are simply appended.
+ *
+ *  @author Yuhao Wang
+ */
+public class CommitGraph {
+    /** The graph file of the current repository. */
+    static final File GRAPH_FILE = join(Repository.GITLET_DIR, "commit-graph");
+
+    private static final int MAGIC = 0x47434752; // "GCGR"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int RECORD_LENGTH = Pack.RAW_LENGTH + 12;
+
+    /** Paint flags used by mergeBase. */
+    private static final byte PARENT1 = 1;
+    private static final byte PARENT2 = 2;
+    private static final byte STALE = 4;
+    private static final byte RESULT = 8;
+
+    /** The graph of the current repository, loaded on first use. */
+    private static CommitGraph loaded;
+    /** Repository.stamp of GRAPH_FILE when LOADED last matched it. */
+    private static String loadedStamp;
+
+    /** Record fields, by index. */
+    private final List<String> ids = new ArrayList<>();
+    private int[] parent1 = new int[16];
+    private int[] parent2 = new int[16];
+    private int[] generation = new int[16];
+    /** Commit id -> record index. */
+    private final HashMap<String, Integer> index = new HashMap<>();
+
+    /** Return the commit graph of the current repository, building it from
+     *  the commits reachable from every branch if the file is missing. */
+    static CommitGraph graph() {
+        String stamp = Repository.stamp(GRAPH_FILE);
+        if (loaded == null || stamp == null || !stamp.equals(loadedStamp)) {
+            Metrics.miss("commitGraph");
+            if (stamp == null) {
+                return rebuild();
+            }
+            loaded = read(GRAPH_FILE);
+            loadedStamp = stamp;
+        } else {
+            Metrics.hit("commitGraph");
+        }
+        return loaded;
+    }
+
+    /** Record the new commit ID with PARENTS, which may be null, in the
+     *  graph of the current repository. */
+    static void append(String id, List<String> parents) {
+        CommitGraph g = graph();
+        if (g.contains(id)) {
+            return;
+        }
+        for (String p : parents == null ? List.<String>of() : parents) {
+            if (!g.contains(p)) {
+                rebuild();
+                return;
+            }
+        }
+        int i = g.add(id, parents);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(GRAPH_FILE, true)))) {
+            g.writeRecord(out, i);
+        } catch (IOException excp) {
+            throw error("Cannot write commit graph: %s", excp.getMessage());
+        }
+        loadedStamp = Repository.stamp(GRAPH_FILE);
+    }
+
+    /** Record the commits IDS, parents first, with their PARENTS in the
+     *  graph stored in FILE, which may belong to another repository.  If
+     *  FILE lacks a parent, it is deleted instead, so that it is rebuilt
+     *  when next used; if it is missing, nothing is done. */
+    static void appendAll(File file, List<String> ids, Map<String, List<String>> parents) {
+        if (!file.exists()) {
+            return;
+        }
+        CommitGraph g = read(file);
+        int first = g.size();
+        for (String id : ids) {
+            if (g.contains(id)) {
+                continue;
+            }
+            List<String> ps = parents.get(id);
+            for (String p : ps == null ? List.<String>of() : ps) {
+                if (!g.contains(p)) {
+                    file.delete();
+                    return;
+                }
+            }
+            g.add(id, ps);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            for (int i = first; i < g.size(); i += 1) {
+                g.writeRecord(out, i);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write commit graph: %s", excp.getMessage());
+        }
+    }
+
+    /** Return a graph of every commit reachable from the branch heads and
+     *  HEAD of the current repository, after writing it to GRAPH_FILE and
+     *  making it the loaded graph. */
+    static CommitGraph rebuild() {
+        List<String> tips = new ArrayList<>();
+        if (Branch.exists()) {
+            tips.addAll(Branch.readBranch().branches.values());
+        }
+        if (Repository.hasHead()) {
+            tips.add(Repository.readHead());
+        }
+        CommitGraph g = new CommitGraph();
+        for (String tip : tips) {
+            g.addReachable(tip);
+        }
+        g.write(GRAPH_FILE);
+        loaded = g;
+        loadedStamp = Repository.stamp(GRAPH_FILE);
+        return g;
+    }
+
+    /** Add TIP and all of its ancestors, parents first, reading each
+     *  commit that is not yet in the graph. */
+    private void addReachable(String tip) {
+        Deque<String> stack = new ArrayDeque<>();
+        HashMap<String, List<String>> parentsOf = new HashMap<>();
+        stack.push(tip);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (contains(id)) {
+                stack.pop();
+                continue;
+            }
+            List<String> parents = parentsOf.get(id);
+            if (parents == null) {
+                parents = Commit.readCommit(id).parent;
+                parents = parents == null ? List.of() : parents;
+                parentsOf.put(id, parents);
+                for (String p : parents) {
+                    if (!contains(p)) {
+                        stack.push(p);
+                    }
+                }
+                continue;
+            }
+            stack.pop();
+            add(id, parents);
+        }
+    }
+
+    /** Return the number of commits in the graph. */
+    int size() {
+        return ids.size();
+    }
+
+    /** Return true iff commit ID is in the graph. */
+    boolean contains(String id) {
+        return index.containsKey(id);
+    }
+
+    /** Return the record index of commit ID, or -1. */
+    int indexOf(String id) {
+        Integer i = index.get(id);
+        return i == null ? -1 : i;
+    }
+
+    /** Return the commit id of record I. */
+    String idAt(int i) {
+        return ids.get(i);
+    }
+
+    /** Return the generation number of record I. */
+    int generation(int i) {
+        return generation[i];
+    }
+
+    /** Return the parent record indices of record I. */
+    int[] parents(int i) {
+        if (parent1[i] < 0) {
+            return new int[0];
+        } else if (parent2[i] < 0) {
+            return new int[] {parent1[i]};
+        }
+        return new int[] {parent1[i], parent2[i]};
+    }
+
+    /** Append a record for ID with PARENTS, all of which are present, and
+     *  return its index. */
+    private int add(String id, List<String> parents) {
+        int i = ids.size();
+        if (i == parent1.length) {
+            parent1 = Arrays.copyOf(parent1, i * 2);
+            parent2 = Arrays.copyOf(parent2, i * 2);
+            generation = Arrays.copyOf(generation, i * 2);
+        }
+        int p1 = parents != null && parents.size() > 0 ? index.get(parents.get(0)) : -1;
+        int p2 = parents != null && parents.size() > 1 ? index.get(parents.get(1)) : -1;
+        ids.add(id);
+        parent1[i] = p1;
+        parent2[i] = p2;
+        generation[i] = 1 + Math.max(p1 < 0 ? 0 : generation[p1], p2 < 0 ? 0 : generation[p2]);
+        index.put(id, i);
+        return i;
+    }
+
+    /** Return the id of the latest common ancestor of commits A and B.
+     *  Both sides are painted downward in decreasing generation order,
+     *  a commit being queued again only when it gains a new paint flag, and
+     *  the walk stops as soon as every commit still queued is below a
+     *  common ancestor.  When several best common ancestors remain, the
+     *  one nearest A by a breadth-first search over all parents wins; the
+     *  first versions instead took the nearest common ancestor on A's
+     *  first-parent chain, which differs when A's history has merges.
+     *  Returns null if either commit is not in the graph or they have no
+     *  common ancestor. */
+    String mergeBase(String a, String b) {
+        int ia = indexOf(a);
+        int ib = indexOf(b);
+        if (ia < 0 || ib < 0) {
+            return null;
+        }
+        if (ia == ib) {
+            return a;
+        }
+        byte[] flags = new byte[size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) ->
+                generation[x] != generation[y]
+                ? Integer.compare(generation[y], generation[x]) : Integer.compare(y, x));
+        flags[ia] |= PARENT1;
+        flags[ib] |= PARENT2;
+        queue.add(ia);
+        queue.add(ib);
+        List<Integer> results = new ArrayList<>();
+        while (hasActive(queue, flags)) {
+            int c = queue.poll();
+            int f = flags[c] & (PARENT1 | PARENT2 | STALE);
+            if (f == (PARENT1 | PARENT2)) {
+                if ((flags[c] & RESULT) == 0) {
+                    flags[c] |= RESULT;
+                    results.add(c);
+                }
+                f |= STALE;
+            }
+            for (int p : parents(c)) {
+                if ((flags[p] & f) != f) {
+                    flags[p] |= f;
+                    queue.add(p);
+                }
+            }
+        }
+        if (results.isEmpty()) {
+            return null;
+        }
+        if (results.size() == 1) {
+            return idAt(results.get(0));
+        }
+        return idAt(closest(ia, flags));
+    }
+
+    /** Return true iff some record in QUEUE is not yet below a common
+     *  ancestor. */
+    private static boolean hasActive(PriorityQueue<Integer> queue, byte[] flags) {
+        for (int c : queue) {
+            if ((flags[c] & STALE) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the RESULT-flagged record nearest to START, by breadth-first
+     *  search over parents. */
+    private int closest(int start, byte[] flags) {
+        boolean[] seen = new boolean[size()];
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(start);
+        seen[start] = true;
+        while (!queue.isEmpty()) {
+            int c = queue.poll();
+            if ((flags[c] & RESULT) != 0) {
+                return c;
+            }
+            for (int p : parents(c)) {
+                if (!seen[p]) {
+                    seen[p] = true;
+                    queue.add(p);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /* PERSISTENCE */
+
+    /** Return the graph stored in FILE. */
+    static CommitGraph read(File file) {
+        CommitGraph g = new CommitGraph();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Corrupt commit graph.");
+            }
+            long records = (file.length() - HEADER_LENGTH) / RECORD_LENGTH;
+            byte[] raw = new byte[Pack.RAW_LENGTH];
+            for (long r = 0; r < records; r += 1) {
+                in.readFully(raw);
+                int i = g.ids.size();
+                if (i == g.parent1.length) {
+                    g.parent1 = Arrays.copyOf(g.parent1, i * 2);
+                    g.parent2 = Arrays.copyOf(g.parent2, i * 2);
+                    g.generation = Arrays.copyOf(g.generation, i * 2);
+                }
+                String id = Pack.toHex(raw);
+                g.ids.add(id);
+                g.index.put(id, i);
+                g.parent1[i] = in.readInt();
+                g.parent2[i] = in.readInt();
+                g.generation[i] = in.readInt();
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read commit graph: %s", excp.getMessage());
+        }
+        return g;
+    }
+
+    /** Write the whole graph to FILE. */
+    void write(File file) {
+        File tmp = join(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < size(); i += 1) {
+                writeRecord(out, i);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write commit graph: %s", excp.getMessage());
+        }
+        if (!tmp.renameTo(file)) {
+            throw error("Cannot write commit graph.");
+        }
+    }
+
+    private void writeRecord(DataOutputStream out, int i) throws IOException {
+        out.write(Pack.toRaw(ids.get(i)));
+        out.writeInt(parent1[i]);
+        out.writeInt(parent2[i]);
+        out.writeInt(generation[i]);
+    }
+}
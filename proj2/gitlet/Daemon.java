@@ -0,0 +1,286 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** A long-running server for the repository in its working directory, so
+ *  that a sequence of commands pays for JVM startup, class loading and
+ *  cache warm-up once instead of once per command.  The head, branches,
+ *  stage, commit graph, packs and blob cache stay in memory between
+ *  commands, each reused only while its file is unchanged.
+ *
+ *  The daemon listens on a loopback port and records, in .gitlet/daemon,
+ *      PORT
+ *      TOKEN
+ *      WORKING-DIRECTORY
+ *  where TOKEN is a random secret that every request must present.  A
+ *  request is the token, the command's arguments and the client's values
+ *  of the ENVIRONMENT variables; the response is a sequence of frames
+ *  CHANNEL LENGTH BYTES  holding what the command wrote to standard
+ *  output (OUT) or standard error (ERR), ended by an END byte and the
+ *  exit status.  Commands run one at a time.
+ *
+ *  @author Yuhao Wang
+ */
+public class Daemon {
+    /** The port file of the current repository. */
+    static final File PORT_FILE = join(Repository.GITLET_DIR, "daemon");
+
+    /** Frame channels. */
+    private static final int END = 0;
+    private static final int OUT = 1;
+    private static final int ERR = 2;
+
+    /** Milliseconds a connected client has to send its request. */
+    private static final int REQUEST_TIMEOUT = 10000;
+
+    /** The environment variables that commands read, sent by the client. */
+    private static final String[] ENVIRONMENT =
+        {Metrics.PROFILE, Metrics.VERBOSE, WorkingTree.JOBS};
+
+    /** The environment of the client whose command is running, or null
+     *  when commands run in this process's own. */
+    private static Map<String, String> clientEnvironment;
+
+    /** Serve commands for the current repository until a client asks the
+     *  daemon to stop. */
+    static void serve() {
+        if (PORT_FILE.exists() && connect() != null) {
+            throw error("A daemon is already running.");
+        }
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            String token = new BigInteger(128, new SecureRandom()).toString(16);
+            writePortFile(server.getLocalPort() + "\n" + token + "\n"
+                    + Repository.CWD.getCanonicalPath() + "\n");
+            warm();
+            boolean running = true;
+            while (running) {
+                try (Socket socket = server.accept()) {
+                    running = handle(socket, token);
+                } catch (IOException excp) {
+                    // The client went away; serve the next one.
+                } finally {
+                    System.setOut(stdout);
+                    System.setErr(stderr);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot start daemon: %s", excp.getMessage());
+        } finally {
+            PORT_FILE.delete();
+        }
+    }
+
+    /** Write CONTENTS to PORT_FILE, readable only by its owner from the
+     *  start: the token is written to a temporary file created owner-only
+     *  and then renamed into place. */
+    private static void writePortFile(String contents) throws IOException {
+        Path dir = Repository.GITLET_DIR.toPath();
+        Path tmp;
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            tmp = Files.createTempFile(dir, "daemon", ".tmp", PosixFilePermissions
+                    .asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            tmp = Files.createTempFile(dir, "daemon", ".tmp");
+            File f = tmp.toFile();
+            f.setReadable(false, false);
+            f.setReadable(true, true);
+            f.setWritable(false, false);
+            f.setWritable(true, true);
+        }
+        try {
+            writeContents(tmp.toFile(), contents);
+            Files.move(tmp, PORT_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Load the state that every command needs. */
+    private static void warm() {
+        Repository.readHead();
+        Branch.readBranch();
+        Stage.readStaged();
+        Pack.packs();
+        CommitGraph.graph();
+    }
+
+    /** Run the command requested on SOCKET if it presents TOKEN, sending
+     *  back its output.  Return false iff the daemon should stop. */
+    private static boolean handle(Socket socket, String token) throws IOException {
+        socket.setSoTimeout(REQUEST_TIMEOUT);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        if (!in.readUTF().equals(token)) {
+            return true;
+        }
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        Map<String, String> env = new HashMap<>();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            String name = in.readUTF();
+            env.put(name, in.readUTF());
+        }
+        boolean stop = args.length == 2 && args[0].equals("daemon") && args[1].equals("stop");
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        PrintStream commandOut = new PrintStream(new BufferedOutputStream(new Frames(out, OUT)));
+        PrintStream commandErr = new PrintStream(new BufferedOutputStream(new Frames(out, ERR)));
+        System.setOut(commandOut);
+        System.setErr(commandErr);
+        clientEnvironment = env;
+        int status = 0;
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                if (!stop) {
+                    System.out.println("A daemon is already running.");
+                }
+            } else {
+                Main.main(args);
+            }
+        } catch (RuntimeException | Error excp) {
+            // As the JVM reports an exception that ends the main thread.
+            System.err.print("Exception in thread \"main\" ");
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            clientEnvironment = null;
+        }
+        commandOut.flush();
+        commandErr.flush();
+        out.writeByte(END);
+        out.writeInt(status);
+        out.flush();
+        return !stop;
+    }
+
+    /** Return the value of environment variable NAME for the running
+     *  command, which is its client's when the daemon runs it. */
+    static String getenv(String name) {
+        Map<String, String> env = clientEnvironment;
+        return env == null ? System.getenv(name) : env.get(name);
+    }
+
+    /** Run the command ARGS on the daemon serving the current repository,
+     *  copying its output to System.out and System.err, and return its
+     *  exit status.  Return -1, without running anything, if no daemon is
+     *  serving it. */
+    static int forward(String[] args) {
+        Socket socket = connect();
+        if (socket == null) {
+            return -1;
+        }
+        int status;
+        try (socket) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(readContentsAsString(PORT_FILE).split("\n")[1]);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            Map<String, String> env = new HashMap<>();
+            for (String name : ENVIRONMENT) {
+                if (System.getenv(name) != null) {
+                    env.put(name, System.getenv(name));
+                }
+            }
+            out.writeInt(env.size());
+            for (Map.Entry<String, String> e : env.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            for (int channel = in.readByte(); channel != END; channel = in.readByte()) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                (channel == ERR ? System.err : System.out).write(bytes);
+            }
+            status = in.readInt();
+        } catch (IOException excp) {
+            System.err.println("Lost connection to the gitlet daemon.");
+            status = 1;
+        }
+        System.out.flush();
+        System.err.flush();
+        return status;
+    }
+
+    /** Ask the daemon serving the current repository to stop.  Return
+     *  false if there is none. */
+    static boolean stop() {
+        return forward(new String[] {"daemon", "stop"}) >= 0;
+    }
+
+    /** Return a connection to the daemon serving the current repository,
+     *  or null if there is none.  A port file left by a daemon that is no
+     *  longer running is removed. */
+    private static Socket connect() {
+        if (!PORT_FILE.exists()) {
+            return null;
+        }
+        try {
+            String[] info = readContentsAsString(PORT_FILE).split("\n");
+            if (info.length < 3 || !info[2].equals(Repository.CWD.getCanonicalPath())) {
+                return null;
+            }
+            return new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(info[0]));
+        } catch (IOException | NumberFormatException excp) {
+            PORT_FILE.delete();
+            return null;
+        }
+    }
+
+    /** Sends everything written to it as frames of one channel. */
+    private static class Frames extends OutputStream {
+        private final DataOutputStream out;
+        private final int channel;
+
+        Frames(DataOutputStream out, int channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.writeByte(channel);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+    }
+}
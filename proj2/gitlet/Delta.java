@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Delta encoding of one byte sequence (the target) against another (the
+ *  base).  A delta is
+ *      BASE-LENGTH TARGET-LENGTH  INSTRUCTION...
+ *  where every length and offset is an unsigned varint and each
+ *  instruction is either
+ *      COPY OFFSET LENGTH     copy LENGTH bytes of the base from OFFSET
+ *      INSERT LENGTH BYTES    append the LENGTH literal BYTES.
+ *  Matches are found by indexing the base in fixed-size blocks and sliding
+ *  a rolling hash over the target, as xdelta and git do.
+ *  @author Yuhao Wang
+ */
+class Delta {
+    /** Instruction codes. */
+    private static final int COPY = 0;
+    private static final int INSERT = 1;
+    /** Size of the indexed base blocks, and the shortest copy emitted. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the polynomial rolling hash. */
+    private static final int PRIME = 16777619;
+
+    /** Return a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 4 + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int[] table = index(base);
+        int mask = table.length - 1;
+        int power = 1;
+        for (int k = 1; k < BLOCK; k += 1) {
+            power *= PRIME;
+        }
+
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table[h & mask];
+            if (candidate >= 0 && Arrays.equals(base, candidate, candidate + BLOCK,
+                                                target, i, i + BLOCK)) {
+                int start = candidate;
+                int from = i;
+                while (from > pending && start > 0 && base[start - 1] == target[from - 1]) {
+                    start -= 1;
+                    from -= 1;
+                }
+                int end = candidate + BLOCK;
+                int to = i + BLOCK;
+                while (end < base.length && to < target.length && base[end] == target[to]) {
+                    end += 1;
+                    to += 1;
+                }
+                insert(out, target, pending, from);
+                out.write(COPY);
+                writeVarint(out, start);
+                writeVarint(out, end - start);
+                pending = to;
+                i = to;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = (h - target[i] * power) * PRIME + target[i + BLOCK];
+            }
+            i += 1;
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw new IllegalArgumentException("Delta does not match its base");
+        }
+        byte[] result = new byte[(int) readVarint(delta, pos)];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, result, n, length);
+                n += length;
+            } else if (op == INSERT) {
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, n, length);
+                pos[0] += length;
+                n += length;
+            } else {
+                throw new IllegalArgumentException("Corrupt delta");
+            }
+        }
+        if (n != result.length) {
+            throw new IllegalArgumentException("Corrupt delta");
+        }
+        return result;
+    }
+
+    /** Return a hash table from block hash to the offset of a base block
+     *  with that hash, -1 marking empty slots. */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) << 1;
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        for (int b = blocks - 1; b >= 0; b -= 1) {
+            table[hash(base, b * BLOCK) & (size - 1)] = b * BLOCK;
+        }
+        return table;
+    }
+
+    /** Return the rolling hash of the BLOCK bytes of DATA at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * PRIME + data[k];
+        }
+        return h;
+    }
+
+    /** Emit an INSERT of TARGET[FROM .. TO), if that is not empty. */
+    private static void insert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Write the unsigned varint VALUE to OUT. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Read an unsigned varint from DATA at POS[0], advancing POS[0]. */
+    static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = data[pos[0]++];
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
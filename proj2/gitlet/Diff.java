@@ -0,0 +1,423 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Line-by-line comparison of file contents.
+ *
+ *  Contents are split into lines, each keeping its newline (the last may
+ *  lack one), and equal lines are given equal numbers so that they are
+ *  compared as ints.  Two sequences are matched by Myers' O((N+M)D)
+ *  algorithm in its linear-space form, which finds the middle snake of
+ *  the edit path and recurses on either side of it, so memory stays
+ *  proportional to the input however far apart the files are.
+ *
+ *  unified prints the changes between two versions of a file in the
+ *  unified format of diff -u and git diff, one hunk at a time.
+ *
+ *  merge3 combines two versions of a file with their common ancestor
+ *  the way diff3 does: regions that only one side changed take that
+ *  side's lines, and only regions both changed differently are bracketed
+ *  by conflict markers.
+ *
+ *  @author Yuhao Wang
+ */
+class Diff {
+    static final byte[] CONFLICT_START = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    static final byte[] CONFLICT_SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    static final byte[] CONFLICT_END = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+
+    /** Steps of an edit script. */
+    private static final byte KEEP = 0;
+    private static final byte DELETE = 1;
+    private static final byte INSERT = 2;
+
+    /** The lines of some contents. */
+    static class Lines {
+        /** The contents. */
+        final byte[] data;
+        /** Line I is DATA[START[I] .. START[I+1]). */
+        final int[] start;
+        /** Line I's number, equal for equal lines of texts numbered
+         *  together. */
+        int[] ids;
+
+        Lines(byte[] data) {
+            this.data = data;
+            int n = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    n += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                n += 1;
+            }
+            start = new int[n + 1];
+            int line = 1;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' && line <= n) {
+                    start[line] = i + 1;
+                    line += 1;
+                }
+            }
+            start[n] = data.length;
+        }
+
+        /** Return the number of lines. */
+        int size() {
+            return start.length - 1;
+        }
+
+        /** Write lines [FROM, TO) to OUT. */
+        void writeTo(ByteArrayOutputStream out, int from, int to) {
+            out.write(data, start[from], start[to] - start[from]);
+        }
+    }
+
+    /** A line of some contents, as a key for numbering lines. */
+    private static class Key {
+        private final byte[] data;
+        private final int from;
+        private final int to;
+        private final int hash;
+
+        Key(byte[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            int h = 1;
+            for (int i = from; i < to; i += 1) {
+                h = 31 * h + data[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return hash == k.hash && Arrays.equals(data, from, to, k.data, k.from, k.to);
+        }
+    }
+
+    /** Split each of CONTENTS into lines numbered together. */
+    static Lines[] lines(byte[]... contents) {
+        HashMap<Key, Integer> numbers = new HashMap<>();
+        Lines[] result = new Lines[contents.length];
+        for (int f = 0; f < contents.length; f += 1) {
+            Lines l = new Lines(contents[f]);
+            l.ids = new int[l.size()];
+            for (int i = 0; i < l.size(); i += 1) {
+                Key key = new Key(l.data, l.start[i], l.start[i + 1]);
+                Integer id = numbers.putIfAbsent(key, numbers.size());
+                l.ids[i] = id == null ? numbers.size() - 1 : id;
+            }
+            result[f] = l;
+        }
+        return result;
+    }
+
+    /** Return, for each element of A, the index of the element of B it
+     *  is matched with in a longest common subsequence of A and B, or -1
+     *  if it is not in it. */
+    static int[] match(int[] a, int[] b) {
+        int[] match = new int[a.length];
+        Arrays.fill(match, -1);
+        int offset = a.length + b.length + 1;
+        int[] forward = new int[2 * offset + 1];
+        int[] backward = new int[2 * offset + 1];
+        match(a, 0, a.length, b, 0, b.length, match, forward, backward, offset);
+        return match;
+    }
+
+    /** Record in MATCH a longest common subsequence of A[ALO .. AHI) and
+     *  B[BLO .. BHI), using FORWARD and BACKWARD, centered on OFFSET, as
+     *  the furthest-reaching path tables. */
+    private static void match(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                              int[] match, int[] forward, int[] backward, int offset) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            match[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            match[aHi] = bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi, forward, backward, offset);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            match[x] = y;
+        }
+        match(a, aLo, snake[0], b, bLo, snake[1], match, forward, backward, offset);
+        match(a, snake[2], aHi, b, snake[3], bHi, match, forward, backward, offset);
+    }
+
+    /** Return the middle snake {X, Y, U, V} of an edit path from
+     *  A[ALO .. AHI) to B[BLO .. BHI): the diagonal run of equal elements
+     *  from (X, Y) to (U, V), in absolute indices, at which the furthest
+     *  forward and backward paths meet.  The sequences are nonempty and
+     *  differ in their first and last elements. */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                     int[] forward, int[] backward, int offset) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && forward[offset + k - 1] < forward[offset + k + 1]
+                    ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)
+                        && x + backward[offset + delta - k] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int c = -d; c <= d; c += 2) {
+                int x = c == -d || c != d && backward[offset + c - 1] < backward[offset + c + 1]
+                    ? backward[offset + c + 1] : backward[offset + c - 1] + 1;
+                int y = x - c;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + c] = x;
+                int k = delta - c;
+                if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Return the edit script from A to B given MATCH, the matching of
+     *  A's lines to B's: one step per line kept, deleted from A or
+     *  inserted from B, in order. */
+    private static byte[] script(Lines a, Lines b, int[] match) {
+        byte[] steps = new byte[a.size() + b.size()];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (i < a.size() && match[i] < 0) {
+                steps[n] = DELETE;
+                i += 1;
+            } else if (j < b.size() && (i == a.size() || match[i] > j)) {
+                steps[n] = INSERT;
+                j += 1;
+            } else {
+                steps[n] = KEEP;
+                i += 1;
+                j += 1;
+            }
+            n += 1;
+        }
+        return Arrays.copyOf(steps, n);
+    }
+
+    /** Write to OUT the unified diff of file NAME from contents OLD to
+     *  NOW, either of which is null if the file is absent on that side.
+     *  Nothing is written if they hold the same lines. */
+    static void unified(String name, byte[] old, byte[] now, PrintStream out) {
+        Lines[] lines = lines(old == null ? new byte[0] : old, now == null ? new byte[0] : now);
+        Lines a = lines[0];
+        Lines b = lines[1];
+        byte[] steps = script(a, b, match(a.ids, b.ids));
+        int next = 0;
+        while (next < steps.length && steps[next] == KEEP) {
+            next += 1;
+        }
+        if (next == steps.length && (old == null) == (now == null)) {
+            return;
+        }
+        out.printf("diff --git a/%s b/%s%n", name, name);
+        if (old == null) {
+            out.printf("new file mode %o%n", Stage.MODE_FILE);
+        } else if (now == null) {
+            out.printf("deleted file mode %o%n", Stage.MODE_FILE);
+        }
+        out.printf("--- %s%n", old == null ? "/dev/null" : "a/" + name);
+        out.printf("+++ %s%n", now == null ? "/dev/null" : "b/" + name);
+
+        int end = 0;
+        int i = 0;
+        int j = 0;
+        while (next < steps.length) {
+            int start = Math.max(end, next - CONTEXT);
+            for (int s = end; s < start; s += 1) {
+                i += steps[s] != INSERT ? 1 : 0;
+                j += steps[s] != DELETE ? 1 : 0;
+            }
+            int last = next;
+            for (int s = next + 1; s < steps.length && s - last <= 2 * CONTEXT; s += 1) {
+                if (steps[s] != KEEP) {
+                    last = s;
+                }
+            }
+            end = Math.min(steps.length, last + 1 + CONTEXT);
+            int oldCount = 0;
+            int newCount = 0;
+            for (int s = start; s < end; s += 1) {
+                oldCount += steps[s] != INSERT ? 1 : 0;
+                newCount += steps[s] != DELETE ? 1 : 0;
+            }
+            out.printf("@@ -%s +%s @@%n", range(i, oldCount), range(j, newCount));
+            for (int s = start; s < end; s += 1) {
+                if (steps[s] == INSERT) {
+                    writeLine(out, '+', b, j);
+                    j += 1;
+                } else if (steps[s] == DELETE) {
+                    writeLine(out, '-', a, i);
+                    i += 1;
+                } else {
+                    writeLine(out, ' ', a, i);
+                    i += 1;
+                    j += 1;
+                }
+            }
+            next = end;
+            while (next < steps.length && steps[next] == KEEP) {
+                next += 1;
+            }
+        }
+        out.flush();
+    }
+
+    /** Return the hunk header range of COUNT lines starting after the
+     *  first FROM lines. */
+    private static String range(int from, int count) {
+        if (count == 1) {
+            return String.valueOf(from + 1);
+        }
+        return (count == 0 ? from : from + 1) + "," + count;
+    }
+
+    /** Write line I of LINES to OUT after PREFIX. */
+    private static void writeLine(PrintStream out, char prefix, Lines lines, int i) {
+        int from = lines.start[i];
+        int to = lines.start[i + 1];
+        out.write(prefix);
+        out.write(lines.data, from, to - from);
+        if (to == from || lines.data[to - 1] != '\n') {
+            out.print("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** The result of a three-way merge. */
+    static class Merged {
+        final byte[] contents;
+        /** The number of conflicting regions, each bracketed by markers. */
+        final int conflicts;
+
+        Merged(byte[] contents, int conflicts) {
+            this.contents = contents;
+            this.conflicts = conflicts;
+        }
+    }
+
+    /** Merge OURS and THEIRS, two versions of BASE.  Where only one side
+     *  changed a region of BASE, its version is taken; where both did, and
+     *  differently, the region is written as
+     *      <<<<<<< HEAD
+     *      OURS
+     *      =======
+     *      THEIRS
+     *      >>>>>>>
+     */
+    static Merged merge3(byte[] base, byte[] ours, byte[] theirs) {
+        Lines[] lines = lines(base, ours, theirs);
+        Lines o = lines[0];
+        Lines a = lines[1];
+        Lines b = lines[2];
+        int[] matchA = match(o.ids, a.ids);
+        int[] matchB = match(o.ids, b.ids);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                Math.max(ours.length, theirs.length));
+        int conflicts = 0;
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (true) {
+            int d = 0;
+            while (i + d < o.size() && matchA[i + d] == j + d && matchB[i + d] == k + d) {
+                d += 1;
+            }
+            if (d > 0) {
+                o.writeTo(out, i, i + d);
+                i += d;
+                j += d;
+                k += d;
+                continue;
+            }
+            int next = i;
+            while (next < o.size() && (matchA[next] < 0 || matchB[next] < 0)) {
+                next += 1;
+            }
+            int aEnd = next < o.size() ? matchA[next] : a.size();
+            int bEnd = next < o.size() ? matchB[next] : b.size();
+            conflicts += chunk(out, o, i, next, a, j, aEnd, b, k, bEnd);
+            if (next == o.size()) {
+                break;
+            }
+            i = next;
+            j = aEnd;
+            k = bEnd;
+        }
+        return new Merged(out.toByteArray(), conflicts);
+    }
+
+    /** Write to OUT the merge of the unstable region O[OLO .. OHI),
+     *  changed to A[ALO .. AHI) on one side and B[BLO .. BHI) on the
+     *  other.  Return 1 if it conflicts, and otherwise 0. */
+    private static int chunk(ByteArrayOutputStream out, Lines o, int oLo, int oHi,
+                             Lines a, int aLo, int aHi, Lines b, int bLo, int bHi) {
+        if (same(o, oLo, oHi, a, aLo, aHi)) {
+            b.writeTo(out, bLo, bHi);
+        } else if (same(o, oLo, oHi, b, bLo, bHi) || same(a, aLo, aHi, b, bLo, bHi)) {
+            a.writeTo(out, aLo, aHi);
+        } else {
+            out.writeBytes(CONFLICT_START);
+            a.writeTo(out, aLo, aHi);
+            out.writeBytes(CONFLICT_SEPARATOR);
+            b.writeTo(out, bLo, bHi);
+            out.writeBytes(CONFLICT_END);
+            return 1;
+        }
+        return 0;
+    }
+
+    /** Return true iff X[XLO .. XHI) and Y[YLO .. YHI) are the same lines. */
+    private static boolean same(Lines x, int xLo, int xHi, Lines y, int yLo, int yHi) {
+        return Arrays.equals(x.ids, xLo, xHi, y.ids, yLo, yHi);
+    }
+}
@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** Deletes the objects of a repository that nothing refers to; see
+ *  gitlet-design.md for how the marking and the sweep work.
+ *  @author Yuhao Wang
+ */
+class GarbageCollector {
+
+    /** Collect the garbage of the current repository and return the
+     *  number of objects deleted. */
+    static int collect() {
+        Stage stage = Stage.readStaged();
+        Set<String> live = mark(stage);
+        int before = countObjects();
+        int kept = Pack.repack(live);
+        sweepStage(stage);
+        for (File dir : new File[] {MessageIndex.INDEX_DIR, Blame.BLAME_DIR}) {
+            for (File f : Repository.looseObjects(dir)) {
+                f.delete();
+            }
+        }
+        MessageIndex.rebuild();
+        CommitGraph.rebuild();
+        Metrics.count("gc.kept", kept);
+        Metrics.count("gc.removed", before - kept);
+        Metrics.verbose("%d objects kept, %d removed.", kept, before - kept);
+        return before - kept;
+    }
+
+    /** Return the ids of every object reachable from the branch heads,
+     *  HEAD and STAGE. */
+    static Set<String> mark(Stage stage) {
+        Set<String> live = new HashSet<>();
+        Set<String> trees = new HashSet<>();
+        Deque<String> commits = new ArrayDeque<>(Branch.readBranch().branches.values());
+        commits.push(Repository.readHead());
+        while (!commits.isEmpty()) {
+            String id = commits.pop();
+            if (!live.add(id)) {
+                continue;
+            }
+            Commit commit = Commit.readCommit(id);
+            if (commit.parent != null) {
+                for (String p : commit.parent) {
+                    if (!live.contains(p)) {
+                        commits.push(p);
+                    }
+                }
+            }
+            if (commit.tree != null) {
+                markTree(commit.tree, live, trees);
+            } else {
+                for (String blob : commit.getContextHash().values()) {
+                    markBlob(blob, live);
+                }
+            }
+        }
+        for (String blob : stage.add.values()) {
+            markBlob(blob, live);
+        }
+        return live;
+    }
+
+    /** Add tree or manifest ID, the trees and blobs under it, and their
+     *  delta bases to LIVE, unless ID is in TREES, the trees already
+     *  walked. */
+    private static void markTree(String id, Set<String> live, Set<String> trees) {
+        if (!trees.add(id)) {
+            return;
+        }
+        markBlob(id, live);
+        Map<String, Tree.Entry> entries = Tree.entries(id);
+        if (entries == null) {
+            for (String blob : Tree.read(id).values()) {
+                markBlob(blob, live);
+            }
+            return;
+        }
+        for (Tree.Entry entry : entries.values()) {
+            if (entry.isDir) {
+                markTree(entry.id, live, trees);
+            } else {
+                markBlob(entry.id, live);
+            }
+        }
+    }
+
+    /** Add blob ID and the chain of blobs it is a delta against to LIVE. */
+    private static void markBlob(String id, Set<String> live) {
+        while (id != null && live.add(id)) {
+            id = Blob.baseOf(id);
+        }
+    }
+
+    /** Return the number of distinct objects stored, loose or packed. */
+    private static int countObjects() {
+        Set<String> ids = new HashSet<>(Pack.ids(Pack.COMMIT));
+        ids.addAll(Pack.ids(Pack.BLOB));
+        ids.addAll(Repository.looseIds(Commit.COMMIT_DIR));
+        ids.addAll(Repository.looseIds(Blob.BLOB_DIR));
+        return ids.size();
+    }
+
+    /** Delete the files of the stage directory that STAGE does not name,
+     *  such as blobs staged and then replaced and temporary files of
+     *  interrupted writes, and leftover temporary files of the pack and
+     *  index writers. */
+    private static void sweepStage(Stage stage) {
+        Set<String> staged = new HashSet<>(stage.add.values());
+        List<String> names = plainFilenamesIn(Stage.STAGED_DIR);
+        for (String name : names == null ? List.<String>of() : names) {
+            if (!staged.contains(name)) {
+                join(Stage.STAGED_DIR, name).delete();
+            }
+        }
+        List<String> packFiles = plainFilenamesIn(Pack.PACK_DIR);
+        for (String name : packFiles == null ? List.<String>of() : packFiles) {
+            if (name.startsWith("tmp-pack") || name.endsWith(".tmp")) {
+                join(Pack.PACK_DIR, name).delete();
+            }
+        }
+        join(Repository.GITLET_DIR, "index.tmp").delete();
+    }
+}
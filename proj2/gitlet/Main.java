@@ -1,6 +1,9 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
 
 import static gitlet.Utils.writeContents;
@@ -11,14 +14,42 @@ import static gitlet.Utils.writeContents;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  [--profile] <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  With --profile, or GITLET_PROFILE set, a JSON summary of the
+     *  command's phases, counters and caches is written to standard error
+     *  (see Metrics).
      */
     public static void main(String[] args) {
+        boolean profile = args != null && args.length > 0 && args[0].equals("--profile");
+        if (profile) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         if (args == null || args.length == 0) {
             Utils.message("Please enter a command.");
             return;
         }
+        boolean profiled = !args[0].equals("daemon") && Metrics.start(args[0], profile);
+        try {
+            dispatch(args);
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            if (!Repository.deferWrites) {
+                Metrics.time("statcache.save", StatCache::save);
+            }
+            if (profiled) {
+                Metrics.finish();
+            }
+        }
+    }
+
+    /** Run the command named by ARGS[0]. */
+    private static void dispatch(String[] args) {
         String firstArg = args[0];
+        StatCache.refresh();
+        if (!firstArg.equals("init") && judgeInit()) {
+            Metrics.time("upgrade", Repository::upgrade);
+        }
         switch(firstArg) {
             case "init":
                 init(args);
@@ -59,6 +90,39 @@ public class Main {
             case "merge":
                 merge(args);
                 break;
+            case "repack":
+                repack(args);
+                break;
+            case "diff":
+                diff(args);
+                break;
+            case "gc":
+                gc(args);
+                break;
+            case "add-remote":
+                addRemote(args);
+                break;
+            case "rm-remote":
+                rmRemote(args);
+                break;
+            case "fetch":
+                fetch(args);
+                break;
+            case "push":
+                push(args);
+                break;
+            case "pull":
+                pull(args);
+                break;
+            case "blame":
+                blame(args);
+                break;
+            case "daemon":
+                daemon(args);
+                break;
+            case "batch":
+                batch(args);
+                break;
             default:
                 Utils.message("No command with that name exists.");
                 return;
@@ -112,48 +176,23 @@ public class Main {
     /** the commit of add */
     private static void add(String[] args) {
         judgeInitMessage();
-        judgeLength(args, 2);
-        String filename = args[1];
-        File file;
-        file = Utils.join(Repository.CWD, filename);
-        if (!file.exists()) {
-            Utils.message("File does not exist.");
+        if (args.length < 2) {
+            Utils.message("Incorrect operands.");
             return;
         }
-        String contents = Utils.readContentsAsString(file);
-        Blob blob = new Blob(contents);
-        blob.writeBlobToStage();
-        Stage stage = Stage.readStaged();
-        boolean flag = true;
-        Commit commit = Commit.readCommit(Repository.readHead());
-        HashMap<String, String> hashmap = commit.contextHash;
-        if (hashmap != null && hashmap.containsKey(filename)) {
-            String hash = hashmap.get(filename);
-            if (Objects.equals(hash, blob.sha1)) {
-                blob.deleteBlobFromStage();
-                stage.add.remove(filename);
-                flag = false;
+        Path root = Repository.CWD.toPath();
+        List<File> files = new ArrayList<>();
+        for (int i = 1; i < args.length; i += 1) {
+            Path path = root.resolve(args[i]).normalize();
+            File file = path.toFile();
+            if (!path.startsWith(root) || path.startsWith(Repository.GITLET_DIR.toPath())
+                    || !file.exists()) {
+                Utils.message("File does not exist.");
+                return;
             }
+            files.add(file);
         }
-        hashmap = stage.add;
-        HashSet<String> hashset = stage.remove;
-        if (hashmap != null && hashmap.containsKey(filename)) {
-            String hash = hashmap.get(filename);
-            File f = Utils.join(Stage.STAGED_DIR, hash);
-            f.delete();
-            stage.add.put(filename, blob.sha1);
-            flag = false;
-        }
-        if (hashset != null && hashset.contains(filename)) {
-            blob.deleteBlobFromStage();
-            stage.add.remove(filename);
-            stage.remove.remove(filename);
-            flag = false;
-        }
-        if (flag) {
-            stage.add.put(filename, blob.sha1);
-        }
-        Utils.writeObject(Stage.stage, stage);
+        WorkingTree.add(files, WorkingTree.jobs());
     }
 
     /** the commit of commit */
@@ -180,9 +219,8 @@ public class Main {
             parent = parents;
         }
         /** contextHash */
-        File parentfile = Utils.join(Commit.COMMIT_DIR, parent.get(0));
-        Commit parentcommit = Utils.readObject(parentfile, Commit.class);
-        HashMap<String, String> hashmap = new HashMap<>(parentcommit.contextHash);
+        Commit parentcommit = Commit.readCommit(parent.get(0));
+        HashMap<String, String> hashmap = new HashMap<>(parentcommit.getContextHash());
         Stage stage = Stage.readStaged();
         HashMap<String, String> stageadd = stage.add;
         HashSet<String> stageremove = stage.remove;
@@ -190,23 +228,18 @@ public class Main {
             Utils.message("No changes added to the commit.");
             return;
         }
-        for (String filename : stageadd.keySet()) {
-            String hash = stageadd.get(filename);
-            Blob blob;
-            try {
-                blob = Blob.readBlobFromStage(hash);
-            } catch (IllegalArgumentException e) {
-                // 如果暂存文件不存在，尝试从对象库读取
-                blob = Blob.readBlob(hash);
+        Metrics.time("commit.blobs", () -> {
+            for (String filename : stageadd.keySet()) {
+                String hash = stageadd.get(filename);
+                Blob.commitStaged(hash, parentcommit.getContextHash().get(filename));
+                hashmap.put(filename, hash);
             }
-            blob.writeBlob();
-            hashmap.put(filename, blob.sha1);
-        }
+        });
         for (String filename : stageremove) {
             hashmap.remove(filename);
         }
         Commit commit = new Commit(message, hashmap, parent);
-        commit.writeCommit();
+        Metrics.time("commit.write", commit::writeCommit);
         String sha1 = commit.sha;
         Repository.changeHead(sha1);
         Branch branch = Branch.readBranch();
@@ -223,6 +256,13 @@ public class Main {
         judgeLength(args, 2);
         String filename = args[1];
         boolean flag = false;
+        Commit commit = Commit.readCommit(Repository.readHead());
+        HashMap<String, String> hashmap1 = commit.getContextHash();
+        if ((Stage.flagsOf(filename) & Stage.ADDED) == 0
+                && (hashmap1 == null || !hashmap1.containsKey(filename))) {
+            Utils.message("No reason to remove the file.");
+            return;
+        }
         /** Unstage the file if it is currently staged for addition. */
         Stage stage = Stage.readStaged();
         HashMap<String, String> hashmap = stage.add;
@@ -240,24 +280,25 @@ public class Main {
          * for removal and remove the file from the working directory
          * if the user has not already done so (do not remove it
          * unless it is tracked in the current commit).*/
-        Commit commit = Commit.readCommit(Repository.readHead());
-        HashMap<String, String> hashmap1 = commit.contextHash;
         if (hashmap1 != null && hashmap1.containsKey(filename)) {
-            String hash = hashmap1.get(filename);
-            File f = Utils.join(Repository.CWD, filename);
-            f.delete();
+            WorkingTree.remove(filename);
             flag = true;
         }
         if (!flag) {
             Utils.message("No reason to remove the file.");
             return;
         }
-        Utils.writeObject(Stage.stage, stage);
+        Stage.writeStaged(stage);
     }
 
-    /** the commit of log */
+    /** the commit of log; with the operands -- PATH, only the commits
+     *  that changed the file or directory PATH */
     private static void log(String[] args) {
         judgeInitMessage();
+        if (args.length == 3 && args[1].equals("--")) {
+            logPath(args[2]);
+            return;
+        }
         judgeLength(args, 1);
         String Head = Repository.readHead();
         Commit commit = Commit.readCommit(Head);
@@ -269,11 +310,107 @@ public class Main {
         printCommitFormat(commit, commit.sha);
     }
 
+    /** Print the commits of the head's first-parent history that changed
+     *  PATH.  The history is walked in the commit graph, and a commit is
+     *  read only if its changed-paths filter says it may have changed PATH;
+     *  then the trees on the way to PATH in it and its parent decide. */
+    private static void logPath(String arg) {
+        String path = trackedName(arg);
+        if (path == null) {
+            Utils.message("Incorrect operands.");
+            return;
+        }
+        CommitGraph graph = CommitGraph.graph();
+        int i = graph.indexOf(Repository.readHead());
+        if (i < 0) {
+            graph = CommitGraph.rebuild();
+            i = graph.indexOf(Repository.readHead());
+        }
+        int walked = 0;
+        int hits = 0;
+        int shown = 0;
+        while (i >= 0) {
+            int[] parents = graph.parents(i);
+            String id = graph.idAt(i);
+            Commit parent = null;
+            byte[] filter = ChangedPaths.filter(id);
+            if (filter == null) {
+                parent = parents.length == 0 ? null : Commit.readCommit(graph.idAt(parents[0]));
+                filter = ChangedPaths.record(Commit.readCommit(id), parent);
+            }
+            walked += 1;
+            if (ChangedPaths.mayContain(filter, path)) {
+                hits += 1;
+                Commit commit = Commit.readCommit(id);
+                if (parent == null && parents.length > 0) {
+                    parent = Commit.readCommit(graph.idAt(parents[0]));
+                }
+                if (Tree.changed(parent, commit, path)) {
+                    shown += 1;
+                    printCommitFormat(commit, id);
+                }
+            }
+            i = parents.length == 0 ? -1 : parents[0];
+        }
+        Metrics.count("log.walked", walked);
+        Metrics.count("log.filterHits", hits);
+        Metrics.count("log.shown", shown);
+        Metrics.verbose("%d commits walked, %d filter hits, %d shown.", walked, hits, shown);
+    }
+
+    /** Return the name, as commits record it, of the path ARG within the
+     *  working directory, or null if ARG is outside it, the directory
+     *  itself, or inside .gitlet. */
+    private static String trackedName(String arg) {
+        Path root = Repository.CWD.toPath();
+        Path target = root.resolve(arg).normalize();
+        if (!target.startsWith(root) || target.equals(root)
+                || target.startsWith(Repository.GITLET_DIR.toPath())) {
+            return null;
+        }
+        return WorkingTree.nameOf(target.toFile());
+    }
+
+    /** The commit of blame: print each line of a file as of the head
+     *  commit after the short id and date of the commit that last changed
+     *  it and its line number */
+    private static void blame(String[] args) {
+        judgeInitMessage();
+        if (args.length != 2) {
+            Utils.message("Incorrect operands.");
+            return;
+        }
+        String head = Repository.readHead();
+        String path = trackedName(args[1]);
+        String[] origins = path == null ? null : Blame.blame(head, path);
+        if (origins == null) {
+            Utils.message("File does not exist in that commit.");
+            return;
+        }
+        Diff.Lines lines = new Diff.Lines(Blob.contents(Blame.blobOf(head, path)));
+        HashMap<String, String> dates = new HashMap<>();
+        int width = String.valueOf(origins.length).length();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < origins.length; i += 1) {
+            String date = dates.computeIfAbsent(origins[i],
+                id -> Commit.readCommit(id).timestamp);
+            String prefix = String.format("%s (%s %" + width + "d) ",
+                    origins[i].substring(0, 8), date, i + 1);
+            out.writeBytes(prefix.getBytes(StandardCharsets.UTF_8));
+            lines.writeTo(out, i, i + 1);
+            if (lines.data[lines.start[i + 1] - 1] != '\n') {
+                out.write('\n');
+            }
+        }
+        System.out.write(out.toByteArray(), 0, out.size());
+        System.out.flush();
+    }
+
     /** the commit of global_log */
     private static void global_log(String[] args) {
         judgeInitMessage();
         judgeLength(args, 1);
-        List<String> filenamelist = Utils.plainFilenamesIn(Commit.COMMIT_DIR);
+        List<String> filenamelist = Commit.allCommitIds();
         for (String filename : filenamelist) {
             Commit commit = Commit.readCommit(filename);
             String sha = commit.sha;
@@ -295,12 +432,11 @@ public class Main {
         judgeInitMessage();
         judgeLength(args, 2);
         String commitMessage = args[1];
-        List<String> filenamelist = Utils.plainFilenamesIn(Commit.COMMIT_DIR);
+        List<String> filenamelist = MessageIndex.find(commitMessage);
+        Collections.sort(filenamelist);
         boolean flag = false;
         for (String filename : filenamelist) {
-            Commit commit = Commit.readCommit(filename);
-            String message = commit.message;
-            if (message.equals(commitMessage)) {
+            if (Commit.exists(filename)) {
                 System.out.println(filename);
                 flag = true;
             }
@@ -339,7 +475,7 @@ public class Main {
         HashMap<String, String> stage_add = stage.add;
         s += "=== Staged Files ===\n";
         if (stage_add != null) {
-            for (String stage_name : stage_add.keySet()) {
+            for (String stage_name : new TreeSet<>(stage_add.keySet())) {
                 s = String.format("%s%s\n", s, stage_name);
             }
         }
@@ -348,13 +484,51 @@ public class Main {
         HashSet<String> stage_remove = stage.remove;
         s += "=== Removed Files ===\n";
         if (stage_remove != null) {
-            for (String stage_name : stage_remove) {
+            for (String stage_name : new TreeSet<>(stage_remove)) {
                 s = String.format("%s%s\n", s, stage_name);
             }
         }
         s += "\n";
 
-        s += "=== Modifications Not Staged For Commit ===\n\n=== Untracked Files ===\n\n";
+        /** === Modifications Not Staged For Commit === and === Untracked Files === */
+        HashMap<String, String> tracked = Commit.readCommit(Repository.readHead()).getContextHash();
+        TreeSet<String> modified = new TreeSet<>();
+        for (Map.Entry<String, String> entry : tracked.entrySet()) {
+            String name = entry.getKey();
+            if (stage_add.containsKey(name)) {
+                continue;
+            }
+            File f = Utils.join(Repository.CWD, name);
+            if (!f.isFile()) {
+                if (!stage_remove.contains(name)) {
+                    modified.add(name + " (deleted)");
+                }
+            } else if (!StatCache.holds(f, entry.getValue())) {
+                modified.add(name + " (modified)");
+            }
+        }
+        for (Map.Entry<String, String> entry : stage_add.entrySet()) {
+            File f = Utils.join(Repository.CWD, entry.getKey());
+            if (!f.isFile()) {
+                modified.add(entry.getKey() + " (deleted)");
+            } else if (!StatCache.holds(f, entry.getValue())) {
+                modified.add(entry.getKey() + " (modified)");
+            }
+        }
+        s += "=== Modifications Not Staged For Commit ===\n";
+        for (String name : modified) {
+            s = String.format("%s%s\n", s, name);
+        }
+        s += "\n";
+
+        s += "=== Untracked Files ===\n";
+        for (String name : WorkingTree.files()) {
+            if (!stage_add.containsKey(name)
+                    && (!tracked.containsKey(name) || stage_remove.contains(name))) {
+                s = String.format("%s%s\n", s, name);
+            }
+        }
+        s += "\n";
 
         /** print */
         System.out.print(s);
@@ -381,18 +555,18 @@ public class Main {
             }
 
             // Check for untracked files that would be overwritten
-            checkUntrackedFiles(branchName);
+            Metrics.time("checkout.untracked", () -> checkUntrackedFiles(branchName));
 
             // Get the target commit
             String targetCommitId = branch.branches.get(branchName);
             Commit targetCommit = Commit.readCommit(targetCommitId);
 
+            // Update working directory to match target branch
+            Metrics.time("checkout.files", () -> updateWorkingDirectory(targetCommit));
+
             // Clear the staging area
             Stage.clearStaged();
 
-            // Update working directory to match target branch
-            updateWorkingDirectory(targetCommit);
-
             // Update HEAD and current branch
             Repository.changeHead(targetCommitId);
             branch.current_branch = branchName;
@@ -407,12 +581,11 @@ public class Main {
         } else if (args.length == 4 && args[2].equals("--")) {
             // Case 2: checkout [commit id] -- [file name]
             String commitId = args[1];
-            List<String> allCommits = getAllCommitIds();
             // 支持部分commit ID
-            if (commitId.length() < 40) {
+            if (commitId.length() < Utils.UID_LENGTH) {
                 commitId = findFullCommitId(commitId);
             }
-            if (!allCommits.contains(commitId)) {
+            if (!Commit.exists(commitId)) {
                 Utils.message("No commit with that id exists.");
                 return;
             }
@@ -426,17 +599,6 @@ public class Main {
         }
     }
 
-    /**
-     * Returns all commit IDs in the repository as an iterable List
-     * (unordered, just the raw commit IDs from the commit directory)
-     */
-    public static List<String> getAllCommitIds() {
-        judgeInitMessage();
-
-        List<String> commitIds = Utils.plainFilenamesIn(Commit.COMMIT_DIR);
-        return commitIds != null ? commitIds : Collections.emptyList();
-    }
-
     /** Helper method to check for untracked files that would be overwritten */
     private static void checkUntrackedFiles(String targetBranchName) {
         Branch branch = Branch.readBranch();
@@ -446,7 +608,8 @@ public class Main {
         Stage stage = Stage.readStaged();
 
         // 获取当前工作目录中的所有文件
-        List<String> workingFiles = Utils.plainFilenamesIn(Repository.CWD);
+        List<String> workingFiles = WorkingTree.files();
+        List<String> untracked = new ArrayList<>();
         if (workingFiles != null) {
             for (String fileName : workingFiles) {
                 // 跳过目录和.gitlet目录
@@ -454,63 +617,48 @@ public class Main {
                     continue;
                 }
 
-                boolean inCurrentCommit = currentCommit.contextHash.containsKey(fileName);
+                boolean inCurrentCommit = currentCommit.getContextHash().containsKey(fileName);
                 boolean inStageAdd = stage.add.containsKey(fileName);
                 boolean inStageRemove = stage.remove.contains(fileName);
-                boolean inTargetCommit = targetCommit.contextHash.containsKey(fileName);
+                boolean inTargetCommit = targetCommit.getContextHash().containsKey(fileName);
+                if (!inCurrentCommit && !inStageAdd) {
+                    untracked.add(fileName);
+                }
 
                 // 如果文件在当前分支未跟踪且会被目标分支覆盖
                 if (!inCurrentCommit && !inStageAdd && inTargetCommit) {
                     // 检查文件内容是否不同
                     File workingFile = Utils.join(Repository.CWD, fileName);
-                    String workingContent = Utils.readContentsAsString(workingFile);
-                    String targetBlobId = targetCommit.contextHash.get(fileName);
-                    Blob targetBlob = Blob.readBlob(targetBlobId);
-                    
-                    if (!workingContent.equals(targetBlob.contents)) {
-                        Utils.message("There is an untracked file in the way; delete it, or add and commit it first.");
-                        System.exit(0);
+                    String targetBlobId = targetCommit.getContextHash().get(fileName);
+                    if (!StatCache.holds(workingFile, targetBlobId)) {
+                        throw Utils.error("There is an untracked file in the way; delete it, or add and commit it first.");
                     }
                 }
             }
         }
+        // 未跟踪文件挡住了目标分支需要的目录, 或位于目标分支的文件处
+        if (WorkingTree.blocksDirectories(untracked, targetCommit.getContextHash().keySet())) {
+            throw Utils.error("There is an untracked file in the way; delete it, or add and commit it first.");
+        }
     }
 
     /** Helper method to update working directory to match a commit */
     private static void updateWorkingDirectory(Commit targetCommit) {
-        // First, remove all files tracked in current commit but not in target
         Branch branch = Branch.readBranch();
         Commit currentCommit = Commit.readCommit(branch.branches.get(branch.current_branch));
-
-        for (String fileName : currentCommit.contextHash.keySet()) {
-            if (!targetCommit.contextHash.containsKey(fileName)) {
-                File file = Utils.join(Repository.CWD, fileName);
-                if (file.exists()) {
-                    file.delete();
-                }
-            }
-        }
-
-        // Then write all files from target commit
-        for (Map.Entry<String, String> entry : targetCommit.contextHash.entrySet()) {
-            String fileName = entry.getKey();
-            String blobId = entry.getValue();
-            Blob blob = Blob.readBlob(blobId);
-            File file = Utils.join(Repository.CWD, fileName);
-            writeContents(file, blob.contents);
-        }
+        WorkingTree.checkout(currentCommit.getContextHash(), targetCommit.getContextHash());
     }
 
     /** Helper method to write a single file from commit to working directory */
     private static void writeFileToWorkingDirectory(Commit commit, String fileName) {
-        if (!commit.contextHash.containsKey(fileName)) {
+        if (!commit.getContextHash().containsKey(fileName)) {
             Utils.message("File does not exist in that commit.");
             return;
         }
-        String blobId = commit.contextHash.get(fileName);
+        String blobId = commit.getContextHash().get(fileName);
         Blob blob = Blob.readBlob(blobId);
         File file = Utils.join(Repository.CWD, fileName);
-        writeContents(file, blob.contents);
+        blob.writeTo(file);
     }
 
     /** Helper method to check if a path is a regular file (not directory) */
@@ -521,18 +669,14 @@ public class Main {
     
     /** Helper method to find full commit ID from abbreviated ID */
     private static String findFullCommitId(String abbreviatedId) {
-        List<String> commitFiles = Utils.plainFilenamesIn(Commit.COMMIT_DIR);
-        if (commitFiles == null) {
+        List<String> matches = Commit.idsWithPrefix(abbreviatedId, 2);
+        if (matches.isEmpty()) {
             throw Utils.error("No commit with that id exists.");
         }
-        
-        for (String commitId : commitFiles) {
-            if (commitId.startsWith(abbreviatedId)) {
-                return commitId;
-            }
+        if (matches.size() > 1) {
+            throw Utils.error("That commit id is ambiguous.");
         }
-        
-        throw Utils.error("No commit with that id exists.");
+        return matches.get(0);
     }
 
     /** The commit of branch */
@@ -580,8 +724,7 @@ public class Main {
             commitId = findFullCommitId(commitId);
         }
 
-        File commitFile = Utils.join(Commit.COMMIT_DIR, commitId);
-        if (!commitFile.exists()) {
+        if (!Commit.exists(commitId)) {
             Utils.message("No commit with that id exists.");
             return;
         }
@@ -590,39 +733,32 @@ public class Main {
         Commit currentCommit = Commit.readCommit(Repository.readHead());
         Stage stage = Stage.readStaged();
 
-        List<String> workingFiles = Utils.plainFilenamesIn(Repository.CWD);
+        List<String> workingFiles = WorkingTree.files();
+        List<String> untracked = new ArrayList<>();
         if (workingFiles != null) {
             for (String filename : workingFiles) {
                 if (!isWorkFile(filename)) continue;
 
-                boolean inCurrent = currentCommit.contextHash.containsKey(filename);
+                boolean inCurrent = currentCommit.getContextHash().containsKey(filename);
                 boolean inStage = stage.add.containsKey(filename) || stage.remove.contains(filename);
-                boolean inTarget = targetCommit.contextHash.containsKey(filename);
+                boolean inTarget = targetCommit.getContextHash().containsKey(filename);
 
                 if (!inCurrent && !inStage && inTarget) {
                     Utils.message("There is an untracked file in the way; delete it, or add and commit it first.");
                     return;
                 }
-            }
-        }
-
-        for (String filename : currentCommit.contextHash.keySet()) {
-            if (!targetCommit.contextHash.containsKey(filename)) {
-                File file = Utils.join(Repository.CWD, filename);
-                if (file.exists()) {
-                    file.delete();
+                if (!inCurrent && !inStage) {
+                    untracked.add(filename);
                 }
             }
         }
-
-        for (Map.Entry<String, String> entry : targetCommit.contextHash.entrySet()) {
-            String filename = entry.getKey();
-            String blobId = entry.getValue();
-            Blob blob = Blob.readBlob(blobId);
-            File file = Utils.join(Repository.CWD, filename);
-            writeContents(file, blob.contents);
+        if (WorkingTree.blocksDirectories(untracked, targetCommit.getContextHash().keySet())) {
+            Utils.message("There is an untracked file in the way; delete it, or add and commit it first.");
+            return;
         }
 
+        WorkingTree.checkout(currentCommit.getContextHash(), targetCommit.getContextHash());
+
         Branch branch = Branch.readBranch();
         branch.branches.put(branch.current_branch, commitId);
         branch.writeBranch();
@@ -657,9 +793,16 @@ public class Main {
         // 2. 获取提交对象
         String currentId = branch.branches.get(branch.current_branch);
         String givenId = branch.branches.get(branchName);
-        String splitPointId = Repository.findSplitPoint(currentId, givenId);
+        String splitPointId = Metrics.time("merge.splitPoint",
+                () -> Repository.findSplitPoint(currentId, givenId));
 
         // 3. 检查特殊情况
+        if (splitPointId == null) {
+            // Histories with no common commit, e.g. a branch fetched from a
+            // repository initialized separately.
+            System.out.println("Given branch has no common ancestor with the current branch.");
+            return;
+        }
         if (splitPointId.equals(givenId)) {
             System.out.println("Given branch is an ancestor of the current branch.");
             return;
@@ -671,34 +814,62 @@ public class Main {
         }
 
         // 4. 检查未跟踪文件
-        checkUntrackedFilesForMerge(currentId, givenId);
+        Metrics.time("merge.untracked", () -> checkUntrackedFilesForMerge(currentId, givenId));
 
         // 5. 开始合并
+        HashMap<String, String> checkouts = new HashMap<>();
+        boolean conflict = Metrics.time("merge.files",
+                () -> mergeFiles(stage, splitPointId, currentId, givenId, checkouts));
+        Metrics.time("merge.write", () -> WorkingTree.write(checkouts));
+
+        // 8. 创建合并提交
+        Stage.writeStaged(stage);
+        List<String> parents = new ArrayList<>();
+        parents.add(currentId);
+        parents.add(givenId);
+        Metrics.time("merge.commit", () -> commit(new String[]{"commit",
+            "Merged " + branchName + " into " + branch.current_branch + "."}, parents));
+
+        // 9. 输出冲突信息
+        if (conflict) {
+            System.out.println("Encountered a merge conflict.");
+        }
+    }
+
+    /** Merge into STAGE the changes made on the given branch, at GIVENID,
+     *  since split point SPLITPOINTID to the current branch, at CURRENTID,
+     *  putting the files to check out in CHECKOUTS.  Return true iff any
+     *  file conflicted. */
+    private static boolean mergeFiles(Stage stage, String splitPointId, String currentId,
+                                      String givenId, Map<String, String> checkouts) {
         Commit splitCommit = Commit.readCommit(splitPointId);
         Commit currentCommit = Commit.readCommit(currentId);
         Commit givenCommit = Commit.readCommit(givenId);
         boolean conflict = false;
 
-        // 6. 收集所有相关文件
-        Set<String> allFiles = new HashSet<>();
-        allFiles.addAll(splitCommit.contextHash.keySet());
-        allFiles.addAll(currentCommit.contextHash.keySet());
-        allFiles.addAll(givenCommit.contextHash.keySet());
+        // 6. 收集所有相关文件: only files changed on either side since the
+        // split point can need merging, and directories unchanged on a side
+        // are skipped by the tree diff without being read.
+        Map<String, String[]> ours = Tree.diff(splitCommit, currentCommit);
+        Map<String, String[]> theirs = Tree.diff(splitCommit, givenCommit);
+        Set<String> allFiles = new TreeSet<>(ours.keySet());
+        allFiles.addAll(theirs.keySet());
 
         // 7. 处理每个文件
         for (String file : allFiles) {
-            String splitBlob = splitCommit.contextHash.get(file);
-            String currentBlob = currentCommit.contextHash.get(file);
-            String givenBlob = givenCommit.contextHash.get(file);
+            String[] oursChange = ours.get(file);
+            String[] theirsChange = theirs.get(file);
+            String splitBlob = oursChange != null ? oursChange[0] : theirsChange[0];
+            String currentBlob = oursChange != null ? oursChange[1] : splitBlob;
+            String givenBlob = theirsChange != null ? theirsChange[1] : splitBlob;
 
             // Case 1: 在split点不存在
             if (splitBlob == null) {
                 if (currentBlob != null && givenBlob != null && !currentBlob.equals(givenBlob)) {
-                    resolveConflict(file, currentBlob, givenBlob);
-                    conflict = true;
+                    conflict |= mergeFile(stage, file, null, currentBlob, givenBlob);
                 } else if (currentBlob == null && givenBlob != null) {
                     // 检出给定分支版本
-                    writeFileToWorkingDirectory(givenCommit, file);
+                    checkouts.put(file, givenBlob);
                     stage.add.put(file, givenBlob);
                 }
             }
@@ -710,34 +881,195 @@ public class Main {
                 if (!changedInCurrent && changedInGiven) {
                     if (givenBlob == null) {
                         // 给定分支删除：删除文件
-                        File f = Utils.join(Repository.CWD, file);
-                        if (f.exists()) f.delete();
+                        WorkingTree.remove(file);
                         stage.remove.add(file);
                         stage.add.remove(file);
                     } else {
                         // 给定分支修改：检出文件
-                        writeFileToWorkingDirectory(givenCommit, file);
+                        checkouts.put(file, givenBlob);
                         stage.add.put(file, givenBlob);
                         stage.remove.remove(file);
                     }
                 } else if (changedInCurrent && changedInGiven && !Objects.equals(currentBlob, givenBlob)) {
-                    resolveConflict(file, currentBlob, givenBlob);
-                    conflict = true;
+                    conflict |= mergeFile(stage, file, splitBlob, currentBlob, givenBlob);
                 }
             }
         }
+        return conflict;
+    }
 
-        // 8. 创建合并提交
-        Utils.writeObject(Stage.stage, stage);
-        List<String> parents = new ArrayList<>();
-        parents.add(currentId);
-        parents.add(givenId);
-        commit(new String[]{"commit", "Merged " + branchName + " into " + branch.current_branch + "."}, parents);
+    /** The commit of repack: fold loose objects into a single pack */
+    private static void repack(String[] args) {
+        judgeInitMessage();
+        judgeLength(args, 1);
+        Pack.repack();
+    }
 
-        // 9. 输出冲突信息
-        if (conflict) {
-            System.out.println("Encountered a merge conflict.");
+    /** The commit of gc: delete the objects that no branch, HEAD or the
+     *  stage refers to, and pack the rest */
+    private static void gc(String[] args) {
+        judgeInitMessage();
+        judgeLength(args, 1);
+        GarbageCollector.collect();
+    }
+
+    /** The commit of add-remote: record a remote repository by name and
+     *  the path of its .gitlet directory */
+    private static void addRemote(String[] args) {
+        judgeInitMessage();
+        if (args.length != 3) {
+            Utils.message("Incorrect operands.");
+            return;
+        }
+        Remote.add(args[1], args[2]);
+    }
+
+    /** The commit of rm-remote */
+    private static void rmRemote(String[] args) {
+        judgeInitMessage();
+        if (args.length != 2) {
+            Utils.message("Incorrect operands.");
+            return;
+        }
+        Remote.remove(args[1]);
+    }
+
+    /** The commit of fetch: copy a branch of a remote into the branch
+     *  REMOTE/BRANCH */
+    private static void fetch(String[] args) {
+        judgeInitMessage();
+        if (args.length != 3) {
+            Utils.message("Incorrect operands.");
+            return;
         }
+        Remote.fetch(args[1], args[2]);
+    }
+
+    /** The commit of push: append the current head's new commits to a
+     *  branch of a remote */
+    private static void push(String[] args) {
+        judgeInitMessage();
+        if (args.length != 3) {
+            Utils.message("Incorrect operands.");
+            return;
+        }
+        Remote.push(args[1], args[2]);
+    }
+
+    /** The commit of pull: fetch a branch of a remote and merge it */
+    private static void pull(String[] args) {
+        judgeInitMessage();
+        if (args.length != 3) {
+            Utils.message("Incorrect operands.");
+            return;
+        }
+        Remote.fetch(args[1], args[2]);
+        merge(new String[] {"merge", args[1] + "/" + args[2]});
+    }
+
+    /** The commit of diff: print the changes, as unified diffs, in
+     *      diff                 the working files from the stage,
+     *      diff --cached        the stage from the head commit,
+     *      diff COMMIT          the working files from COMMIT, or
+     *      diff COMMIT COMMIT   the second commit from the first.
+     *  Each file's diff is printed as soon as it is computed. */
+    private static void diff(String[] args) {
+        judgeInitMessage();
+        Commit head = Commit.readCommit(Repository.readHead());
+        Stage stage = Stage.readStaged();
+        HashMap<String, String> staged = new HashMap<>(head.getContextHash());
+        staged.putAll(stage.add);
+        staged.keySet().removeAll(stage.remove);
+        if (args.length == 2 && (args[1].equals("--cached") || args[1].equals("--staged"))) {
+            printDiffs(Tree.diff(head.getContextHash(), staged));
+        } else if (args.length == 3) {
+            Commit from = readCommitOperand(args[1]);
+            Commit to = from == null ? null : readCommitOperand(args[2]);
+            if (to != null) {
+                printDiffs(Tree.diff(from, to));
+            }
+        } else if (args.length <= 2) {
+            Map<String, String> old = staged;
+            if (args.length == 2) {
+                Commit from = readCommitOperand(args[1]);
+                if (from == null) {
+                    return;
+                }
+                old = from.getContextHash();
+            }
+            TreeSet<String> names = new TreeSet<>(old.keySet());
+            names.addAll(staged.keySet());
+            for (String name : names) {
+                String oldId = old.get(name);
+                File f = Utils.join(Repository.CWD, name);
+                boolean present = staged.containsKey(name) && f.isFile();
+                if (present ? oldId == null || !StatCache.holds(f, oldId) : oldId != null) {
+                    Diff.unified(name, oldId == null ? null : Blob.contents(oldId),
+                                 present ? Utils.readContents(f) : null, System.out);
+                }
+            }
+        } else {
+            Utils.message("Incorrect operands.");
+        }
+    }
+
+    /** Print the unified diff of each of CHANGES, name -> {old blob id,
+     *  new blob id}, with null for a missing file. */
+    private static void printDiffs(Map<String, String[]> changes) {
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            String[] ids = e.getValue();
+            Diff.unified(e.getKey(), ids[0] == null ? null : Blob.contents(ids[0]),
+                         ids[1] == null ? null : Blob.contents(ids[1]), System.out);
+        }
+    }
+
+    /** Return the commit named by the full or abbreviated id ID, or print
+     *  a message and return null if there is none. */
+    private static Commit readCommitOperand(String id) {
+        if (id.length() < Utils.UID_LENGTH) {
+            id = findFullCommitId(id);
+        }
+        if (!Commit.exists(id)) {
+            Utils.message("No commit with that id exists.");
+            return null;
+        }
+        return Commit.readCommit(id);
+    }
+
+    /** Run the commands in the script named by the operand, or read from
+     *  standard input if there is none or it is -. */
+    private static void batch(String[] args) {
+        if (args.length > 2) {
+            Utils.message("Incorrect operands.");
+            return;
+        }
+        if (args.length == 1 || args[1].equals("-")) {
+            Batch.run(null);
+            return;
+        }
+        File script = Repository.CWD.toPath().resolve(args[1]).toFile();
+        if (!script.isFile()) {
+            Utils.message("Script %s does not exist.", args[1]);
+            return;
+        }
+        Batch.run(script);
+    }
+
+    /** Serve commands from this process until stopped; with the operand
+     *  stop, stop the daemon serving this repository. */
+    private static void daemon(String[] args) {
+        if (!judgeInit()) {
+            Utils.message("Not in an initialized Gitlet directory.");
+            return;
+        }
+        if (args.length == 2 && args[1].equals("stop")) {
+            if (!Daemon.stop()) {
+                System.out.println("No daemon is running.");
+            }
+            return;
+        }
+        judgeLength(args, 1);
+        Daemon.serve();
     }
 
     /** 检查未跟踪文件是否会被覆盖 */
@@ -746,44 +1078,65 @@ public class Main {
         Commit givenCommit = Commit.readCommit(givenId);
         Stage stage = Stage.readStaged();
 
-        List<String> workingFiles = Utils.plainFilenamesIn(Repository.CWD);
+        List<String> workingFiles = WorkingTree.files();
         if (workingFiles == null) return;
 
+        List<String> untracked = new ArrayList<>();
         for (String file : workingFiles) {
-            boolean inCurrent = currentCommit.contextHash.containsKey(file);
-            boolean inGiven = givenCommit.contextHash.containsKey(file);
+            boolean inCurrent = currentCommit.getContextHash().containsKey(file);
+            boolean inGiven = givenCommit.getContextHash().containsKey(file);
             boolean staged = stage.add.containsKey(file) || stage.remove.contains(file);
 
             if (!inCurrent && !staged && inGiven) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
+                throw Utils.error("There is an untracked file in the way; delete it, or add and commit it first.");
             }
+            if (!inCurrent && !staged) {
+                untracked.add(file);
+            }
+        }
+        if (WorkingTree.blocksDirectories(untracked, givenCommit.getContextHash().keySet())) {
+            throw Utils.error("There is an untracked file in the way; delete it, or add and commit it first.");
         }
     }
 
-    private static void resolveConflict(String file, String currentBlobId, String givenBlobId) {
-        String currentContent = currentBlobId != null ?
-                Blob.readBlob(currentBlobId).contents : "";
-        String givenContent = givenBlobId != null ?
-                Blob.readBlob(givenBlobId).contents : "";
-
-        String conflictContent = "<<<<<<< HEAD\n" +
-                currentContent +
-                "=======\n" +
-                givenContent +
-                ">>>>>>>\n";
-
-        // 写入工作目录
-        File f = Utils.join(Repository.CWD, file);
-        writeContents(f, conflictContent);
+    /** Merge the versions of FILE changed on both sides, from SPLITBLOBID
+     *  (null if FILE was absent) to CURRENTBLOBID and to GIVENBLOBID, write
+     *  the result to the working directory and stage it in STAGE.  If
+     *  both versions exist they are merged line by line and only the
+     *  regions both changed are marked as conflicts; if one side deleted
+     *  FILE, the whole file conflicts.  Return true iff there was a
+     *  conflict. */
+    private static boolean mergeFile(Stage stage, String file, String splitBlobId,
+                                     String currentBlobId, String givenBlobId) {
+        byte[] conflictContent;
+        boolean conflicted;
+        if (currentBlobId != null && givenBlobId != null) {
+            byte[] base = splitBlobId == null ? new byte[0] : Blob.contents(splitBlobId);
+            Diff.Merged merged = Diff.merge3(base, Blob.contents(currentBlobId),
+                                             Blob.contents(givenBlobId));
+            conflictContent = merged.contents;
+            conflicted = merged.conflicts > 0;
+        } else {
+            ByteArrayOutputStream conflict = new ByteArrayOutputStream();
+            conflict.writeBytes(Diff.CONFLICT_START);
+            if (currentBlobId != null) {
+                Blob.readBlob(currentBlobId).copyTo(conflict);
+            }
+            conflict.writeBytes(Diff.CONFLICT_SEPARATOR);
+            if (givenBlobId != null) {
+                Blob.readBlob(givenBlobId).copyTo(conflict);
+            }
+            conflict.writeBytes(Diff.CONFLICT_END);
+            conflictContent = conflict.toByteArray();
+            conflicted = true;
+        }
 
-        // 添加到暂存区
-        Blob conflictBlob = new Blob(conflictContent);
-        conflictBlob.writeBlobToStage();
-        Stage stage = Stage.readStaged();
-        stage.add.put(file, conflictBlob.sha1);
+        // 添加到暂存区, 写入工作目录
+        String conflictBlobId = Blob.stageBytes(conflictContent);
+        WorkingTree.write(file, conflictContent, conflictBlobId);
+        stage.add.put(file, conflictBlobId);
         // 确保从remove集合中移除该文件
         stage.remove.remove(file);
-        Utils.writeObject(Stage.stage, stage);
+        return conflicted;
     }
 }
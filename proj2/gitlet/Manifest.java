@@ -0,0 +1,39 @@
+package gitlet;
+
+import java.util.HashMap;
+
+/** The list of files tracked by a commit, stored apart from the commit so
+ *  that history walks read only small commit headers.  Commits are now
+ *  written with a Tree per directory instead; manifests remain readable
+ *  for the commits that name them.
+ *
+ *  A manifest is the text
+ *      manifest
+ *      BLOB-ID NAME
+ *      ...
+ *  with one line per file in name order.  It is kept in the blob store, so
+ *  it is content-addressed, compressed, and usually stored as a small
+ *  delta against the parent commit's manifest.
+ *
+ *  @author Yuhao Wang
+ */
+class Manifest {
+    /** First line of every manifest. */
+    private static final String HEADER = "manifest\n";
+
+    /** Return the files listed by TEXT, the contents of manifest ID. */
+    static HashMap<String, String> parse(String id, String text) {
+        if (!text.startsWith(HEADER)) {
+            throw new IllegalArgumentException("Corrupt manifest " + id);
+        }
+        HashMap<String, String> files = new HashMap<>();
+        int start = HEADER.length();
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            files.put(text.substring(start + Utils.UID_LENGTH + 1, end),
+                      text.substring(start, start + Utils.UID_LENGTH));
+            start = end + 1;
+        }
+        return files;
+    }
+}
@@ -0,0 +1,63 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** An on-disk hash table from commit message to the ids of the commits
+ *  with that message, so that find is a single lookup.
+ *
+ *  The bucket for a message is the file .gitlet/messages/ab/cdef...,
+ *  named like a loose object by the SHA-1 of the message, and holds one
+ *  commit id per line.  Commit.writeCommit appends to it.
+ *
+ *  @author Yuhao Wang
+ */
+public class MessageIndex {
+    /** Directory holding the index of the current repository. */
+    static final File INDEX_DIR = join(Repository.GITLET_DIR, "messages");
+
+    /** Record that commit ID has message MESSAGE. */
+    static void add(String message, String id) {
+        add(INDEX_DIR, message, id);
+    }
+
+    /** Record that commit ID has message MESSAGE in the index in DIR. */
+    static void add(File dir, String message, String id) {
+        dir.mkdir();
+        File bucket = Repository.newObjectFile(dir, sha1(message));
+        try (FileOutputStream out = new FileOutputStream(bucket, true)) {
+            out.write((id + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw error("Cannot update message index: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the ids of the commits recorded with message MESSAGE, in the
+     *  order they were added. */
+    static List<String> find(String message) {
+        File bucket = Repository.objectFile(INDEX_DIR, sha1(message));
+        List<String> result = new ArrayList<>();
+        if (bucket.exists()) {
+            for (String id : readContentsAsString(bucket).split("\n")) {
+                if (!id.isEmpty() && !result.contains(id)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Index every commit of the current repository. */
+    static void rebuild() {
+        INDEX_DIR.mkdir();
+        for (String id : Commit.allCommitIds()) {
+            add(Commit.readCommit(id).message, id);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/** Counters and phase timings of one command, written to standard error
+ *  as JSON when it is profiled (see gitlet-design.md).
+ *  @author Yuhao Wang
+ */
+class Metrics {
+    /** Environment variable that, when set, profiles every command. */
+    static final String PROFILE = "GITLET_PROFILE";
+    /** Environment variable that, when set, makes commands report what
+     *  they did on standard error. */
+    static final String VERBOSE = "GITLET_VERBOSE";
+
+    /** True while a profiled command runs. */
+    private static volatile boolean enabled;
+    private static String command;
+    private static long started;
+    private static final ConcurrentHashMap<String, LongAdder> COUNTERS =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> HITS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> MISSES =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> PHASE_NANOS =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> PHASE_CALLS =
+            new ConcurrentHashMap<>();
+
+    /** Start profiling command NAME if PROFILE requests it, or always if
+     *  FORCE is true, unless a profiled command is already running.
+     *  Return true iff this call started it, and must finish it. */
+    static boolean start(String name, boolean force) {
+        if (enabled || !force && Daemon.getenv(PROFILE) == null) {
+            return false;
+        }
+        COUNTERS.clear();
+        HITS.clear();
+        MISSES.clear();
+        PHASE_NANOS.clear();
+        PHASE_CALLS.clear();
+        command = name;
+        started = System.nanoTime();
+        enabled = true;
+        return true;
+    }
+
+    /** Stop profiling and write the summary to standard error. */
+    static void finish() {
+        long wall = System.nanoTime() - started;
+        enabled = false;
+        System.err.println(summary(wall));
+        System.err.flush();
+    }
+
+    /** Return true iff a profiled command is running, for the callers
+     *  whose counts cost something to compute. */
+    static boolean enabled() {
+        return enabled;
+    }
+
+    /** Add 1 to counter NAME. */
+    static void count(String name) {
+        if (enabled) {
+            add(COUNTERS, name, 1);
+        }
+    }
+
+    /** Add N to counter NAME. */
+    static void count(String name, long n) {
+        if (enabled) {
+            add(COUNTERS, name, n);
+        }
+    }
+
+    /** Record a lookup in cache NAME that found its entry. */
+    static void hit(String name) {
+        if (enabled) {
+            add(HITS, name, 1);
+        }
+    }
+
+    /** Record a lookup in cache NAME that did not. */
+    static void miss(String name) {
+        if (enabled) {
+            add(MISSES, name, 1);
+        }
+    }
+
+    /** Run BODY as one run of phase NAME. */
+    static void time(String name, Runnable body) {
+        time(name, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    /** Return the result of BODY, run as one run of phase NAME.  The run
+     *  is recorded even if BODY throws. */
+    static <T> T time(String name, Supplier<T> body) {
+        if (!enabled) {
+            return body.get();
+        }
+        long start = System.nanoTime();
+        try {
+            return body.get();
+        } finally {
+            add(PHASE_NANOS, name, System.nanoTime() - start);
+            add(PHASE_CALLS, name, 1);
+        }
+    }
+
+    /** Print a message composed from MSG and ARGS as for String.format on
+     *  standard error, followed by a newline, if VERBOSE is set. */
+    static void verbose(String msg, Object... args) {
+        if (Daemon.getenv(VERBOSE) != null) {
+            System.err.printf(msg, args);
+            System.err.println();
+        }
+    }
+
+    private static void add(ConcurrentHashMap<String, LongAdder> table, String name, long n) {
+        table.computeIfAbsent(name, k -> new LongAdder()).add(n);
+    }
+
+    /** Return the JSON summary of the command, which took WALL ns. */
+    private static String summary(long wall) {
+        StringBuilder out = new StringBuilder("{\"command\": ");
+        quote(out, command);
+        out.append(", \"wallMs\": ").append(millis(wall));
+
+        out.append(", \"phases\": {");
+        String sep = "";
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(PHASE_NANOS).entrySet()) {
+            out.append(sep);
+            quote(out, e.getKey());
+            out.append(": {\"ms\": ").append(millis(e.getValue().sum()))
+                .append(", \"calls\": ").append(PHASE_CALLS.get(e.getKey()).sum()).append('}');
+            sep = ", ";
+        }
+
+        out.append("}, \"counters\": {");
+        sep = "";
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(COUNTERS).entrySet()) {
+            out.append(sep);
+            quote(out, e.getKey());
+            out.append(": ").append(e.getValue().sum());
+            sep = ", ";
+        }
+
+        out.append("}, \"caches\": {");
+        TreeMap<String, long[]> caches = new TreeMap<>();
+        HITS.forEach((k, v) -> caches.computeIfAbsent(k, x -> new long[2])[0] = v.sum());
+        MISSES.forEach((k, v) -> caches.computeIfAbsent(k, x -> new long[2])[1] = v.sum());
+        sep = "";
+        for (Map.Entry<String, long[]> e : caches.entrySet()) {
+            long hits = e.getValue()[0];
+            long misses = e.getValue()[1];
+            out.append(sep);
+            quote(out, e.getKey());
+            out.append(": {\"hits\": ").append(hits).append(", \"misses\": ").append(misses)
+                .append(", \"hitRate\": ").append(String.format(Locale.ROOT, "%.3f",
+                        (double) hits / (hits + misses))).append('}');
+            sep = ", ";
+        }
+        return out.append("}}").toString();
+    }
+
+    /** Return NANOS as milliseconds with three decimals. */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /** Append S to OUT as a JSON string. */
+    private static void quote(StringBuilder out, String s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,509 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** A packfile holding many gitlet objects in one file, plus the sorted
+ *  index used to find them.
+ *
+ *  The pack file (pack-ID.pack) is written append-only:
+ *      "GPAK" VERSION  then one entry per object:  TYPE LENGTH BYTES,
+ *  followed by the SHA-1 of everything before it.  Each entry's BYTES are
+ *  exactly the bytes that the loose object file held.
+ *
+ *  The index (pack-ID.idx) is
+ *      "GIDX" VERSION  FANOUT[256]  SHA[N]  OFFSET[N]
+ *  where FANOUT[b] is the number of objects whose first id byte is <= b,
+ *  SHA[] are the raw 20-byte ids in ascending order, and OFFSET[i] is the
+ *  position of the entry for SHA[i] in the pack file.  A lookup narrows
+ *  to one fan-out bucket and binary searches it.  Both files are read
+ *  through memory maps.
+ *
+ *  @author Yuhao Wang
+ */
+public class Pack {
+    /** Directory holding the packs of the current repository. */
+    static final File PACK_DIR = join(Repository.GITLET_DIR, "packs");
+
+    /** Entry types. */
+    static final byte COMMIT = 1;
+    static final byte BLOB = 2;
+
+    private static final int PACK_MAGIC = 0x4750414b; // "GPAK"
+    private static final int IDX_MAGIC = 0x47494458;  // "GIDX"
+    private static final int VERSION = 1;
+    /** Size of the magic and version words in the pack header. */
+    private static final int PACK_HEADER = 8;
+    /** Offset of the id table in the index, after magic, version, fan-out. */
+    private static final int IDX_SHAS = 8 + 256 * 4;
+    /** Size of a raw SHA-1 id. */
+    static final int RAW_LENGTH = 20;
+
+    /** The packs of the current repository, opened on first use. */
+    private static List<Pack> loaded;
+    /** Repository.stamp of PACK_DIR when LOADED was opened. */
+    private static String loadedStamp;
+
+    /** Pack and index file. */
+    private final File packFile;
+    private final File idxFile;
+    /** Mapped index. */
+    private final ByteBuffer idx;
+    /** Mapped pack, or null if it is too large to map in one piece. */
+    private final ByteBuffer data;
+    /** Number of objects in the pack. */
+    private final int count;
+
+    private Pack(File idxFile) {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = join(idxFile.getParentFile(),
+                name.substring(0, name.length() - 4) + ".pack");
+        this.idx = map(idxFile, 0, idxFile.length());
+        if (idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != VERSION) {
+            throw error("Corrupt pack index %s.", name);
+        }
+        this.count = idx.getInt(8 + 255 * 4);
+        long size = packFile.length();
+        this.data = size <= Integer.MAX_VALUE ? map(packFile, 0, size) : null;
+    }
+
+    /** Return the packs of the current repository. */
+    static synchronized List<Pack> packs() {
+        String stamp = Repository.stamp(PACK_DIR);
+        if (loaded == null || stamp == null || !stamp.equals(loadedStamp)) {
+            Metrics.miss("packs");
+            loaded = openAll(PACK_DIR);
+            loadedStamp = stamp;
+        } else {
+            Metrics.hit("packs");
+        }
+        return loaded;
+    }
+
+    /** Open every pack in DIR, which may be missing. */
+    static List<Pack> openAll(File dir) {
+        List<Pack> result = new ArrayList<>();
+        List<String> names = plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(".idx")) {
+                    result.add(new Pack(join(dir, name)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the stored bytes of object ID of kind TYPE from any pack of
+     *  the current repository, or null if no pack has it. */
+    static byte[] find(byte type, String id) {
+        for (Pack pack : packs()) {
+            byte[] result = pack.read(type, id);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /** Return a stream over the stored bytes of object ID of kind TYPE from
+     *  any pack of the current repository, or null if no pack has it. */
+    static InputStream stream(byte type, String id) {
+        for (Pack pack : packs()) {
+            int i = pack.position(id);
+            if (i >= 0 && pack.typeAt(i) == type) {
+                return pack.streamAt(i);
+            }
+        }
+        return null;
+    }
+
+    /** Return true iff some pack of the current repository holds object ID
+     *  of kind TYPE. */
+    static boolean has(byte type, String id) {
+        for (Pack pack : packs()) {
+            int i = pack.position(id);
+            if (i >= 0 && pack.typeAt(i) == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the ids of all objects of kind TYPE in the packs of the
+     *  current repository. */
+    static List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        for (Pack pack : packs()) {
+            for (int i = 0; i < pack.count; i += 1) {
+                if (pack.typeAt(i) == type) {
+                    result.add(pack.idAt(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return up to LIMIT ids of objects of kind TYPE, across the packs of
+     *  the current repository, that start with the hex string PREFIX. */
+    static List<String> idsWithPrefix(byte type, String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        for (Pack pack : packs()) {
+            for (int i = pack.lowerBound(prefix);
+                 i < pack.count && result.size() < limit; i += 1) {
+                String id = pack.idAt(i);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                if (pack.typeAt(i) == type && !result.contains(id)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the index of the first id in this pack that is not less than
+     *  PREFIX, binary searching only its fan-out bucket when PREFIX has at
+     *  least two hex digits. */
+    int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = count;
+        if (prefix.length() >= 2 && prefix.substring(0, 2).matches("[0-9a-f]{2}")) {
+            int first = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = first == 0 ? 0 : idx.getInt(8 + (first - 1) * 4);
+            hi = idx.getInt(8 + first * 4);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idAt(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Return the index of ID in this pack, or -1. */
+    int position(String id) {
+        if (id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = toRaw(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(8 + (first - 1) * 4);
+        int hi = idx.getInt(8 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the stored bytes of object ID if this pack holds it as kind
+     *  TYPE, and otherwise null. */
+    byte[] read(byte type, String id) {
+        int i = position(id);
+        if (i < 0 || typeAt(i) != type) {
+            return null;
+        }
+        return bytesAt(i);
+    }
+
+    /** Return the hex id of the Ith object. */
+    String idAt(int i) {
+        byte[] raw = new byte[RAW_LENGTH];
+        idx.get(IDX_SHAS + i * RAW_LENGTH, raw);
+        return toHex(raw);
+    }
+
+    /** Return the type of the Ith object. */
+    byte typeAt(int i) {
+        return entry(offsetAt(i), 1).get(0);
+    }
+
+    /** Return the stored bytes of the Ith object. */
+    byte[] bytesAt(int i) {
+        long offset = offsetAt(i);
+        int length = (int) entry(offset + 1, 8).getLong(0);
+        byte[] result = new byte[length];
+        entry(offset + 9, length).get(0, result);
+        Metrics.count("io.bytesRead", length);
+        return result;
+    }
+
+    /** Return a stream over the stored bytes of the Ith object, read
+     *  straight from the mapped pack. */
+    InputStream streamAt(int i) {
+        long offset = offsetAt(i);
+        long length = entry(offset + 1, 8).getLong(0);
+        if (data == null) {
+            return new ByteArrayInputStream(bytesAt(i));
+        }
+        ByteBuffer buf = data.slice((int) offset + 9, (int) length);
+        Metrics.count("io.bytesRead", length);
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buf.hasRemaining() ? buf.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!buf.hasRemaining()) {
+                    return len == 0 ? 0 : -1;
+                }
+                int n = Math.min(len, buf.remaining());
+                buf.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    private long offsetAt(int i) {
+        return idx.getLong(IDX_SHAS + count * RAW_LENGTH + i * 8);
+    }
+
+    /** Compare the Ith id with the raw id KEY. */
+    private int compareAt(int i, byte[] key) {
+        int base = IDX_SHAS + i * RAW_LENGTH;
+        for (int k = 0; k < RAW_LENGTH; k += 1) {
+            int cmp = (idx.get(base + k) & 0xff) - (key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return a buffer over LENGTH bytes of the pack file at OFFSET. */
+    private ByteBuffer entry(long offset, int length) {
+        if (data != null) {
+            return data.slice((int) offset, length);
+        }
+        return map(packFile, offset, length);
+    }
+
+    /** Delete this pack and its index. */
+    void delete() {
+        idxFile.delete();
+        packFile.delete();
+    }
+
+    /* WRITING */
+
+    /** Collects objects and writes them as a single new pack. */
+    static class Writer {
+        /** Hex id -> entry position in the pack file. */
+        private final TreeMap<String, Long> offsets = new TreeMap<>();
+        private final File dir;
+        private final File tmp;
+        private final DataOutputStream out;
+        private final MessageDigest digest;
+        private long position;
+
+        /** A writer that will create its pack in DIR. */
+        Writer(File dir) {
+            this.dir = dir;
+            dir.mkdir();
+            try {
+                tmp = File.createTempFile("tmp-pack", null, dir);
+                digest = MessageDigest.getInstance("SHA-1");
+                OutputStream file = new BufferedOutputStream(
+                        Files.newOutputStream(tmp.toPath()));
+                out = new DataOutputStream(new DigestOutputStream(file, digest));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                position = PACK_HEADER;
+            } catch (IOException | NoSuchAlgorithmException excp) {
+                throw error("Cannot create pack: %s", excp.getMessage());
+            }
+        }
+
+        /** Return true iff ID has already been added. */
+        boolean contains(String id) {
+            return offsets.containsKey(id);
+        }
+
+        /** Append object ID of kind TYPE whose stored form is BYTES. */
+        void add(byte type, String id, byte[] bytes) {
+            if (offsets.containsKey(id)) {
+                return;
+            }
+            try {
+                out.writeByte(type);
+                out.writeLong(bytes.length);
+                out.write(bytes);
+            } catch (IOException excp) {
+                throw error("Cannot write pack: %s", excp.getMessage());
+            }
+            offsets.put(id, position);
+            position += 9 + bytes.length;
+        }
+
+        /** Finish the pack and its index, returning the new pack, or null
+         *  if nothing was added. */
+        Pack finish() {
+            try {
+                out.flush();
+                byte[] trailer = digest.digest();
+                out.close();
+                if (offsets.isEmpty()) {
+                    tmp.delete();
+                    return null;
+                }
+                try (FileChannel ch = FileChannel.open(tmp.toPath(),
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ch.write(ByteBuffer.wrap(trailer));
+                }
+                String name = "pack-" + toHex(trailer);
+                File packFile = join(dir, name + ".pack");
+                File idxFile = join(dir, name + ".idx");
+                Files.move(tmp.toPath(), packFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                writeIndex(idxFile);
+                return new Pack(idxFile);
+            } catch (IOException excp) {
+                throw error("Cannot write pack: %s", excp.getMessage());
+            }
+        }
+
+        /** Write the index for the collected objects to IDXFILE. */
+        private void writeIndex(File idxFile) throws IOException {
+            File tmpIdx = join(dir, idxFile.getName() + ".tmp");
+            int[] fanout = new int[256];
+            for (String id : offsets.keySet()) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            try (DataOutputStream idxOut = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpIdx.toPath())))) {
+                idxOut.writeInt(IDX_MAGIC);
+                idxOut.writeInt(VERSION);
+                int total = 0;
+                for (int b = 0; b < 256; b += 1) {
+                    total += fanout[b];
+                    idxOut.writeInt(total);
+                }
+                for (String id : offsets.keySet()) {
+                    idxOut.write(toRaw(id));
+                }
+                for (long offset : offsets.values()) {
+                    idxOut.writeLong(offset);
+                }
+            }
+            Files.move(tmpIdx.toPath(), idxFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Fold every loose commit and blob, and every existing pack, of the
+     *  current repository into a single new pack, then delete the loose
+     *  files and old packs.  Returns the number of objects packed. */
+    static int repack() {
+        return repack(null);
+    }
+
+    /** As for repack(), but pack only the objects whose ids are in KEEP,
+     *  if it is not null; the others are deleted. */
+    static int repack(Set<String> keep) {
+        List<Pack> old = packs();
+        Writer writer = new Writer(PACK_DIR);
+        List<File> loose = new ArrayList<>();
+        addLoose(writer, COMMIT, Commit.COMMIT_DIR, loose, keep);
+        addLoose(writer, BLOB, Blob.BLOB_DIR, loose, keep);
+        for (Pack pack : old) {
+            for (int i = 0; i < pack.count; i += 1) {
+                String id = pack.idAt(i);
+                if (!writer.contains(id) && (keep == null || keep.contains(id))) {
+                    writer.add(pack.typeAt(i), id, pack.bytesAt(i));
+                }
+            }
+        }
+        Pack result = writer.finish();
+        for (Pack pack : old) {
+            if (result == null || !pack.idxFile.equals(result.idxFile)) {
+                pack.delete();
+            }
+        }
+        for (File f : loose) {
+            f.delete();
+            f.getParentFile().delete();
+        }
+        loaded = null;
+        return result == null ? 0 : result.count;
+    }
+
+    /** Add the loose objects of kind TYPE in DIR whose ids are in KEEP, or
+     *  all of them if it is null, to WRITER, recording every loose file in
+     *  FILES. */
+    private static void addLoose(Writer writer, byte type, File dir, List<File> files,
+                                 Set<String> keep) {
+        for (File f : Repository.looseObjects(dir)) {
+            String id = f.getParentFile().getName() + f.getName();
+            if (keep == null || keep.contains(id)) {
+                writer.add(type, id, readContents(f));
+            }
+            files.add(f);
+        }
+    }
+
+    /* UTILITIES */
+
+    /** Map LENGTH bytes of FILE starting at OFFSET read-only. */
+    private static MappedByteBuffer map(File file, long offset, long length) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException excp) {
+            throw error("Cannot read pack %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+
+    /** Return the 20 raw bytes of the hex id ID. */
+    static byte[] toRaw(String id) {
+        byte[] result = new byte[RAW_LENGTH];
+        for (int i = 0; i < RAW_LENGTH; i += 1) {
+            result[i] = (byte) (Character.digit(id.charAt(2 * i), 16) << 4
+                    | Character.digit(id.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Return the hex form of the raw id RAW. */
+    static String toHex(byte[] raw) {
+        return Utils.toHex(raw);
+    }
+}
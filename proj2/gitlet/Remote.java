@@ -0,0 +1,328 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The remotes of the current repository, and the copying of commits
+ *  between two repositories by fetch and push (see gitlet-design.md).
+ *  @author Yuhao Wang
+ */
+class Remote {
+    /** The remotes of the current repository. */
+    static final File REMOTES = join(Repository.GITLET_DIR, "remotes");
+
+    private static final byte[] MAGIC = {'G', 'L', 'E'};
+    private static final int VERSION = 1;
+
+    /** The objects, branches and commit graph of one repository, read
+     *  straight from its .gitlet directory. */
+    static class Store {
+        /** The .gitlet directory. */
+        final File dir;
+        private final File commits;
+        private final File blobs;
+        private final List<Pack> packs;
+        /** The commit graph, or null if the repository has none yet. */
+        private final CommitGraph graph;
+        /** File bytes of the trees and delta bases decoded so far. */
+        private final HashMap<String, byte[]> decoded = new HashMap<>();
+
+        /** The repository whose .gitlet directory is DIR. */
+        Store(File dir) {
+            this.dir = dir;
+            commits = join(dir, "commits");
+            blobs = join(dir, "blobs");
+            packs = Pack.openAll(join(dir, "packs"));
+            File graphFile = join(dir, "commit-graph");
+            graph = graphFile.exists() ? CommitGraph.read(graphFile) : null;
+        }
+
+        /** Return the stored bytes of object ID of kind TYPE, or null if
+         *  this repository does not have it. */
+        byte[] stored(byte type, String id) {
+            File f = looseFile(type, id);
+            if (f != null) {
+                return readContents(f);
+            }
+            for (Pack pack : packs) {
+                byte[] result = pack.read(type, id);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        /** Return true iff this repository has object ID of kind TYPE. */
+        boolean has(byte type, String id) {
+            if (looseFile(type, id) != null) {
+                return true;
+            }
+            for (Pack pack : packs) {
+                int i = pack.position(id);
+                if (i >= 0 && pack.typeAt(i) == type) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Return true iff this repository has commit ID, looking in its
+         *  commit graph first. */
+        boolean hasCommit(String id) {
+            return graph != null && graph.contains(id) || has(Pack.COMMIT, id);
+        }
+
+        /** Return the loose file of object ID of kind TYPE, sharded or, in
+         *  a repository not yet upgraded, flat, or null if there is none. */
+        private File looseFile(byte type, String id) {
+            File dir = type == Pack.COMMIT ? commits : blobs;
+            File f = Repository.objectFile(dir, id);
+            if (f.isFile()) {
+                return f;
+            }
+            f = join(dir, id);
+            return f.isFile() ? f : null;
+        }
+
+        /** Return the file bytes of blob ID. */
+        byte[] contents(String id) {
+            byte[] result = decoded.get(id);
+            if (result == null) {
+                byte[] stored = stored(Pack.BLOB, id);
+                if (stored == null) {
+                    throw error("Missing object %s in %s.", id, dir);
+                }
+                result = Blob.decode(stored, this::contents);
+                decoded.put(id, result);
+            }
+            return result;
+        }
+
+        /** Return the branches of this repository. */
+        Branch branches() {
+            return Branch.decode(readContents(join(dir, "branches")));
+        }
+    }
+
+    /** Return the remotes of the current repository, name -> path. */
+    static TreeMap<String, String> read() {
+        TreeMap<String, String> remotes = new TreeMap<>();
+        if (!REMOTES.exists()) {
+            return remotes;
+        }
+        Binary.Reader r = new Binary.Reader(readContents(REMOTES), MAGIC);
+        for (int n = r.readInt(); n > 0; n -= 1) {
+            String name = r.readString();
+            remotes.put(name, r.readString());
+        }
+        return remotes;
+    }
+
+    /** Store REMOTES as the remotes of the current repository. */
+    private static void write(TreeMap<String, String> remotes) {
+        Binary.Writer w = new Binary.Writer(MAGIC, VERSION);
+        w.writeVarint(remotes.size());
+        for (Map.Entry<String, String> e : remotes.entrySet()) {
+            w.writeString(e.getKey()).writeString(e.getValue());
+        }
+        writeContents(REMOTES, w.toByteArray());
+    }
+
+    /** Record the remote NAME, whose .gitlet directory is PATH. */
+    static void add(String name, String path) {
+        TreeMap<String, String> remotes = read();
+        if (remotes.containsKey(name)) {
+            throw error("A remote with that name already exists.");
+        }
+        remotes.put(name, path);
+        write(remotes);
+    }
+
+    /** Forget the remote NAME. */
+    static void remove(String name) {
+        TreeMap<String, String> remotes = read();
+        if (remotes.remove(name) == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        write(remotes);
+    }
+
+    /** Return the repository of remote NAME. */
+    private static Store open(String name) {
+        String path = read().get(name);
+        File dir = path == null ? null : Repository.CWD.toPath()
+                .resolve(path.replace("/", File.separator)).normalize().toFile();
+        if (dir == null || !dir.isDirectory() || !join(dir, "branches").isFile()) {
+            throw error("Remote directory not found.");
+        }
+        return new Store(dir);
+    }
+
+    /** Copy the commits of branch BRANCH of remote NAME that the current
+     *  repository lacks into it, and point the branch NAME/BRANCH at its
+     *  head. */
+    static void fetch(String name, String branch) {
+        Store remote = open(name);
+        String head = remote.branches().branches.get(branch);
+        if (head == null) {
+            throw error("That remote does not have that branch.");
+        }
+        transfer(remote, new Store(Repository.GITLET_DIR), head);
+        Branch local = Branch.readBranch();
+        local.branches.put(name + "/" + branch, head);
+        local.writeBranch();
+    }
+
+    /** Copy the commits of the current head that remote NAME lacks into
+     *  it, and point its branch BRANCH at the head.  The branch must not
+     *  have commits that the head does not. */
+    static void push(String name, String branch) {
+        Store remote = open(name);
+        Branch branches = remote.branches();
+        String head = Repository.readHead();
+        String remoteHead = branches.branches.get(branch);
+        if (remoteHead != null && !(Commit.exists(remoteHead)
+                && remoteHead.equals(Repository.findSplitPoint(remoteHead, head)))) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+        transfer(new Store(Repository.GITLET_DIR), remote, head);
+        branches.branches.put(branch, head);
+        Repository.replace(join(remote.dir, "branches"), branches.encode());
+        if (branch.equals(branches.current_branch)) {
+            Repository.replace(join(remote.dir, "head"), head);
+        }
+    }
+
+    /** Copy commit WANT and everything it refers to that DST lacks from
+     *  SRC to DST, as a single pack, and record the new commits in DST's
+     *  message index and commit graph.  Return the number of objects
+     *  copied. */
+    static int transfer(Store src, Store dst, String want) {
+        List<String> commits = missing(src, dst, want);
+        if (commits.isEmpty()) {
+            return 0;
+        }
+        Pack.Writer out = new Pack.Writer(join(dst.dir, "packs"));
+        HashMap<String, List<String>> parents = new HashMap<>();
+        List<String> messages = new ArrayList<>();
+        int count = 0;
+        for (String id : commits) {
+            byte[] bytes = src.stored(Pack.COMMIT, id);
+            Commit commit = Commit.decode(bytes);
+            out.add(Pack.COMMIT, id, bytes);
+            count += 1;
+            if (commit.tree != null) {
+                count += sendTree(src, dst, out, commit.tree);
+            } else if (commit.contextHash != null) {
+                for (String blob : commit.contextHash.values()) {
+                    count += sendBlob(src, dst, out, blob);
+                }
+            }
+            parents.put(id, commit.parent);
+            messages.add(commit.message);
+        }
+        out.finish();
+        File index = join(dst.dir, "messages");
+        for (int i = 0; i < commits.size(); i += 1) {
+            MessageIndex.add(index, messages.get(i), commits.get(i));
+        }
+        CommitGraph.appendAll(join(dst.dir, "commit-graph"), commits, parents);
+        Metrics.count("remote.commits", commits.size());
+        Metrics.count("remote.objects", count);
+        Metrics.verbose("%d commits, %d objects sent.", commits.size(), count);
+        return count;
+    }
+
+    /** Return the commits reachable from WANT in SRC that DST does not
+     *  have, parents first.  The walk stops at every commit DST has. */
+    private static List<String> missing(Store src, Store dst, String want) {
+        List<String> result = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        HashMap<String, List<String>> parentsOf = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(want);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (seen.contains(id) || dst.hasCommit(id)) {
+                stack.pop();
+                continue;
+            }
+            List<String> parents = parentsOf.get(id);
+            if (parents == null) {
+                byte[] bytes = src.stored(Pack.COMMIT, id);
+                if (bytes == null) {
+                    throw error("Missing commit %s in %s.", id, src.dir);
+                }
+                parents = Commit.decode(bytes).parent;
+                parents = parents == null ? List.of() : parents;
+                parentsOf.put(id, parents);
+                for (String p : parents) {
+                    if (!seen.contains(p)) {
+                        stack.push(p);
+                    }
+                }
+                continue;
+            }
+            stack.pop();
+            seen.add(id);
+            result.add(id);
+        }
+        return result;
+    }
+
+    /** Add tree or manifest ID of SRC to OUT, with the trees and blobs
+     *  under it, unless DST already has it.  Return the number of objects
+     *  added. */
+    private static int sendTree(Store src, Store dst, Pack.Writer out, String id) {
+        if (out.contains(id) || dst.has(Pack.BLOB, id)) {
+            return 0;
+        }
+        int count = sendBlob(src, dst, out, id);
+        byte[] contents = src.contents(id);
+        Map<String, Tree.Entry> entries = Tree.entries(id, contents);
+        if (entries == null) {
+            String text = new String(contents, StandardCharsets.UTF_8);
+            for (String blob : Manifest.parse(id, text).values()) {
+                count += sendBlob(src, dst, out, blob);
+            }
+            return count;
+        }
+        for (Tree.Entry entry : entries.values()) {
+            if (entry.isDir) {
+                count += sendTree(src, dst, out, entry.id);
+            } else {
+                count += sendBlob(src, dst, out, entry.id);
+            }
+        }
+        return count;
+    }
+
+    /** Add blob ID of SRC and the chain of blobs it is a delta against to
+     *  OUT, stopping at the first DST already has.  Return the number of
+     *  objects added. */
+    private static int sendBlob(Store src, Store dst, Pack.Writer out, String id) {
+        int count = 0;
+        while (id != null && !out.contains(id) && !dst.has(Pack.BLOB, id)) {
+            byte[] bytes = src.stored(Pack.BLOB, id);
+            if (bytes == null) {
+                throw error("Missing object %s in %s.", id, src.dir);
+            }
+            out.add(Pack.BLOB, id, bytes);
+            count += 1;
+            id = Blob.baseOf(bytes);
+        }
+        return count;
+    }
+}
@@ -1,6 +1,11 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
 import static gitlet.Utils.*;
 
 import java.util.*;
@@ -24,6 +29,24 @@ public class Repository {
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     /** The Head directory. */
     public static final File HEAD = join(GITLET_DIR, "head");
+    /** The repository format version; a missing file means version 0. */
+    public static final File FORMAT = join(GITLET_DIR, "format");
+    /** Version 1: loose objects live in subdirectories named by the first
+     *  two hex digits of their ids, as DIR/ab/cdef...
+     *  Version 2: every commit is recorded in the MessageIndex.
+     *  Version 3: the stage is kept in the sorted index, Stage.INDEX. */
+    static final int FORMAT_VERSION = 3;
+
+    /** The head as this process last read or wrote it, and the stamp of
+     *  the file it matches. */
+    private static String cachedHead;
+    private static String cachedHeadStamp;
+    /** True iff CACHEDHEAD is not yet written. */
+    private static boolean headDirty;
+
+    /** While true, changes to the head, branches and stage are kept in
+     *  memory and written only by flush. */
+    static boolean deferWrites;
 
     /* TODO: fill in the rest of this class. */
     /**
@@ -34,25 +57,176 @@ public class Repository {
         Commit.COMMIT_DIR.mkdir();
         Stage.STAGED_DIR.mkdir();
         Blob.BLOB_DIR.mkdir();
+        Pack.PACK_DIR.mkdir();
+        MessageIndex.INDEX_DIR.mkdir();
+        writeContents(FORMAT, String.valueOf(FORMAT_VERSION));
+    }
+
+    /** Bring the repository in the current directory up to FORMAT_VERSION,
+     *  one version step at a time. */
+    public static void upgrade() {
+        int version = FORMAT.exists() ? Integer.parseInt(readContentsAsString(FORMAT).trim()) : 0;
+        if (version >= FORMAT_VERSION) {
+            return;
+        }
+        if (version < 1) {
+            shardObjects();
+        }
+        if (version < 2) {
+            MessageIndex.rebuild();
+        }
+        if (version < 3) {
+            Stage.upgrade();
+        }
+        writeContents(FORMAT, String.valueOf(FORMAT_VERSION));
+    }
+
+    /** Move flat loose objects into their fan-out subdirectories. */
+    private static void shardObjects() {
+        for (File dir : new File[] {Commit.COMMIT_DIR, Blob.BLOB_DIR}) {
+            List<String> names = plainFilenamesIn(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (name.length() == UID_LENGTH
+                        && !join(dir, name).renameTo(newObjectFile(dir, name))) {
+                    throw error("Cannot move object %s.", name);
+                }
+            }
+        }
+    }
+
+    /** Return a token that changes whenever FILE is rewritten or replaced:
+     *  its modification time in nanoseconds, length and file key, or null
+     *  if FILE is missing.  State kept in memory between commands is
+     *  reused only while the stamp of its file is unchanged. */
+    static String stamp(File file) {
+        Metrics.count("io.stats");
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) + ":" + attrs.size()
+                + ":" + attrs.fileKey();
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Replace FILE with CONTENTS, as for writeContents, through a new
+     *  file moved into place, so that its stamp changes even when its
+     *  length and modification time do not. */
+    static void replace(File file, Object... contents) {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        writeContents(tmp, contents);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+
+    /** Return the file for loose object ID in the object directory DIR. */
+    static File objectFile(File dir, String id) {
+        if (id.length() <= 2) {
+            return join(dir, id);
+        }
+        return join(dir, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Return the file for loose object ID in DIR, creating its fan-out
+     *  subdirectory if needed. */
+    static File newObjectFile(File dir, String id) {
+        File f = objectFile(dir, id);
+        f.getParentFile().mkdir();
+        return f;
+    }
+
+    /** Return the files of all loose objects in DIR, in id order. */
+    static List<File> looseObjects(File dir) {
+        List<File> result = new ArrayList<>();
+        String[] shards = dir.list();
+        if (shards == null) {
+            return result;
+        }
+        Arrays.sort(shards);
+        for (String shard : shards) {
+            if (shard.length() != 2) {
+                continue;
+            }
+            File sub = join(dir, shard);
+            List<String> names = plainFilenamesIn(sub);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                result.add(join(sub, name));
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids of all loose objects in DIR, in order. */
+    static List<String> looseIds(File dir) {
+        List<String> result = new ArrayList<>();
+        for (File f : looseObjects(dir)) {
+            result.add(f.getParentFile().getName() + f.getName());
+        }
+        return result;
     }
 
     /** change the head */
     public static void changeHead(String hash) {
-        writeContents(HEAD, hash);
+        cachedHead = hash;
+        headDirty = true;
+        if (!deferWrites) {
+            flush();
+        }
     }
 
     /** get the head */
     public static String readHead() {
-        return readContentsAsString(HEAD);
+        if (headDirty) {
+            return cachedHead;
+        }
+        String stamp = stamp(HEAD);
+        if (cachedHead == null || stamp == null || !stamp.equals(cachedHeadStamp)) {
+            Metrics.miss("head");
+            cachedHead = readContentsAsString(HEAD);
+            cachedHeadStamp = stamp;
+        } else {
+            Metrics.hit("head");
+        }
+        return cachedHead;
+    }
+
+    /** Return true iff the head has been written or is waiting to be. */
+    static boolean hasHead() {
+        return headDirty || HEAD.exists();
+    }
+
+    /** Write every change to the head, branches and stage that is being
+     *  held in memory. */
+    static void flush() {
+        Metrics.time("flush", () -> {
+            if (headDirty) {
+                replace(HEAD, cachedHead);
+                cachedHeadStamp = stamp(HEAD);
+                headDirty = false;
+            }
+            Branch.flush();
+            Stage.flush();
+            StatCache.save();
+        });
     }
 
     /** init staged */
     public static void initStaged() {
-        File f = Stage.stage;
         HashMap<String, String> map = new HashMap<>();
         HashSet<String> set = new HashSet<>();
         Stage stage = new Stage(map, set);
-        Utils.writeObject(f, stage);
+        Stage.writeStaged(stage);
     }
 
     /** init branches */
@@ -61,39 +235,13 @@ public class Repository {
         branch.writeBranch();
     }
 
-    /** find the lca */
+    /** find the lca, using the commit graph, or null if the two commits
+     *  have no common ancestor */
     public static String findSplitPoint(String currentId, String givenId) {
-        Queue<String> queue = new LinkedList<>();
-        Map<String, Integer> depthMap = new HashMap<>();
-        Set<String> currentAncestors = new HashSet<>();
-
-        int depth = 0;
-        String commitId = currentId;
-        while(commitId != null) {
-            currentAncestors.add(commitId);
-            depthMap.put(commitId, depth++);
-            Commit c = Commit.readCommit(commitId);
-            commitId = c.parent != null && !c.parent.isEmpty() ? c.parent.get(0) : null;
-        }
-
-        queue.add(givenId);
-        int minDepth = Integer.MAX_VALUE;
-        String lca = null;
-
-        while (!queue.isEmpty()) {
-            String id = queue.poll();
-            if (currentAncestors.contains(id)) {
-                int d = depthMap.get(id);
-                if (d < minDepth) {
-                    minDepth = d;
-                    lca = id;
-                }
-            }
-            Commit c = Commit.readCommit(id);
-            if (c.parent != null) {
-                queue.addAll(c.parent);
-            }
+        CommitGraph graph = CommitGraph.graph();
+        if (graph.indexOf(currentId) < 0 || graph.indexOf(givenId) < 0) {
+            graph = CommitGraph.rebuild();
         }
-        return lca;
+        return graph.mergeBase(currentId, givenId);
     }
 }
@@ -1,17 +1,57 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.HashMap;
 import java.util.HashSet;
 
 import static gitlet.Utils.*;
 
+/** The staging area, kept in .gitlet/index as a sorted table of the
+ *  staged paths that can be searched in place (see gitlet-design.md).
+ */
 public class Stage implements Serializable {
+    /** Fixed so that stages written by earlier versions still read. */
+    private static final long serialVersionUID = -1312472507267139703L;
+
     /** persitence path */
     static final File STAGED_DIR = join(Repository.GITLET_DIR, "stage");
-    static final File stage = join(STAGED_DIR, "stageinformation");
+    static final File INDEX = join(Repository.GITLET_DIR, "index");
+    /** Where stages were kept before the index. */
+    static final File LEGACY_STAGE = join(STAGED_DIR, "stageinformation");
+
+    private static final byte[] MAGIC = {'G', 'L', 'S'};
+    /** Version 1 was the unindexed Binary encoding kept in LEGACY_STAGE. */
+    private static final int LEGACY_VERSION = 1;
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 8;
+
+    /** Entry flags. */
+    static final int ADDED = 1;
+    static final int REMOVED = 2;
+    /** Mode of a regular file. */
+    static final int MODE_FILE = 0100644;
+
+    /** The stage as this process last read or wrote it, and the
+     *  Repository.stamp of the file it matches. */
+    private static Stage cached;
+    private static String cachedStamp;
+    /** True iff CACHED has changes that are not yet written. */
+    private static boolean dirty;
+    /** True iff the stage was cleared while writes were deferred, so the
+     *  staged blobs it held are not yet deleted. */
+    private static boolean cleared;
 
     public HashMap<String, String> add;
     public HashSet<String> remove;
@@ -23,37 +63,282 @@ public class Stage implements Serializable {
 
     /** clear the staged area */
     public static void clearStaged() {
-        List<String> stagedBlobs = plainFilenamesIn(STAGED_DIR);
-
-        if (stagedBlobs != null && stagedBlobs.isEmpty()) {
+        if (Repository.deferWrites) {
+            cached = new Stage(new HashMap<>(), new HashSet<>());
+            dirty = true;
+            cleared = true;
             return;
         }
+        cached = null;
+        dirty = false;
+        INDEX.delete();
+        deleteStagedBlobs(Collections.emptySet());
+    }
 
+    /** Delete the staged blob files other than those in KEEP. */
+    private static void deleteStagedBlobs(Collection<String> keep) {
+        List<String> stagedBlobs = plainFilenamesIn(STAGED_DIR);
+        if (stagedBlobs == null) {
+            return;
+        }
         for (String blobName : stagedBlobs) {
-            File blobFile = join(STAGED_DIR, blobName);
-            blobFile.delete();
+            if (!keep.contains(blobName)) {
+                join(STAGED_DIR, blobName).delete();
+            }
         }
     }
 
     /** write the stage */
     public static void writeStaged(Stage s) {
-        writeObject(stage, s);
+        cached = s.copy();
+        dirty = true;
+        if (!Repository.deferWrites) {
+            flush();
+        }
+    }
+
+    /** Write the stage if it has unwritten changes. */
+    static void flush() {
+        if (cleared) {
+            cleared = false;
+            deleteStagedBlobs(new HashSet<>(cached.add.values()));
+            if (cached.add.isEmpty() && cached.remove.isEmpty()) {
+                cached = null;
+                dirty = false;
+                INDEX.delete();
+            }
+        }
+        if (dirty) {
+            Repository.replace(INDEX, cached.encode());
+            cachedStamp = Repository.stamp(INDEX);
+            dirty = false;
+        }
+    }
+
+    /** Return a copy of this stage that shares no mutable state with it. */
+    Stage copy() {
+        return new Stage(new HashMap<>(add), new HashSet<>(remove));
+    }
+
+    /** Return the index encoding of this stage. */
+    byte[] encode() {
+        List<byte[]> names = new ArrayList<>();
+        for (String name : add.keySet()) {
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        for (String name : remove) {
+            if (!add.containsKey(name)) {
+                names.add(name.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        names.sort(Arrays::compareUnsigned);
+        int size = HEADER_LENGTH + 4 * names.size();
+        for (byte[] name : names) {
+            size += 4 + name.length + 4 + 1 + Pack.RAW_LENGTH;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(MAGIC).put((byte) VERSION).putInt(names.size());
+        int offset = HEADER_LENGTH + 4 * names.size();
+        for (byte[] name : names) {
+            buf.putInt(offset);
+            offset += 4 + name.length + 4 + 1 + Pack.RAW_LENGTH;
+        }
+        byte[] zero = new byte[Pack.RAW_LENGTH];
+        for (byte[] bytes : names) {
+            String name = new String(bytes, StandardCharsets.UTF_8);
+            String id = add.get(name);
+            buf.putInt(bytes.length).put(bytes).putInt(MODE_FILE);
+            buf.put((byte) (id != null ? ADDED : REMOVED));
+            buf.put(id != null ? Pack.toRaw(id) : zero);
+        }
+        return buf.array();
+    }
+
+    /** Return the stage held in the index encoding BYTES. */
+    static Stage decode(byte[] bytes) {
+        return decode(new Index(ByteBuffer.wrap(bytes)));
+    }
+
+    /** Return the stage held in INDEX. */
+    static Stage decode(Index index) {
+        HashMap<String, String> add = new HashMap<>();
+        HashSet<String> remove = new HashSet<>();
+        for (int i = 0; i < index.size(); i += 1) {
+            if ((index.flagsAt(i) & ADDED) != 0) {
+                add.put(index.nameAt(i), index.idAt(i));
+            } else {
+                remove.add(index.nameAt(i));
+            }
+        }
+        return new Stage(add, remove);
+    }
+
+    /** Return the stage held in BYTES, in a format written before the
+     *  index: the Binary encoding
+     *      "GLS" 1  N (NAME BLOB-ID)*N  M NAME*M
+     *  or a serialized Stage. */
+    static Stage decodeLegacy(byte[] bytes) {
+        if (!Binary.hasMagic(bytes, MAGIC)) {
+            return deserialize(bytes, Stage.class);
+        }
+        Binary.Reader r = new Binary.Reader(bytes, MAGIC);
+        if (r.version != LEGACY_VERSION) {
+            throw new IllegalArgumentException("Unknown stage encoding");
+        }
+        HashMap<String, String> add = new HashMap<>();
+        for (int n = r.readInt(); n > 0; n -= 1) {
+            String name = r.readString();
+            add.put(name, r.readId());
+        }
+        HashSet<String> remove = new HashSet<>();
+        for (int n = r.readInt(); n > 0; n -= 1) {
+            remove.add(r.readString());
+        }
+        return new Stage(add, remove);
+    }
+
+    /** Replace a stage kept in LEGACY_STAGE by the index. */
+    static void upgrade() {
+        if (LEGACY_STAGE.exists()) {
+            writeStaged(decodeLegacy(readContents(LEGACY_STAGE)));
+            flush();
+            LEGACY_STAGE.delete();
+        }
     }
 
     /** read the stage */
     public static Stage readStaged() {
-        if (!stage.exists()) {
+        if (dirty) {
+            return cached.copy();
+        }
+        if (!INDEX.exists()) {
             HashMap<String, String> map = new HashMap<>();
             HashSet<String> set = new HashSet<>();
             Stage newStage = new Stage(map, set);
-            writeObject(stage, newStage);
+            writeStaged(newStage);
             return newStage;
         }
-        return readObject(stage, Stage.class);
+        String stamp = Repository.stamp(INDEX);
+        if (cached == null || !stamp.equals(cachedStamp)) {
+            Metrics.miss("stage");
+            cached = decode(Index.open());
+            cachedStamp = stamp;
+        } else {
+            Metrics.hit("stage");
+        }
+        return cached.copy();
+    }
+
+    /** Return the flags with which NAME is staged, or 0 if it is not. */
+    static int flagsOf(String name) {
+        if (dirty || (cached != null && cachedStamp != null
+                      && cachedStamp.equals(Repository.stamp(INDEX)))) {
+            return cached.add.containsKey(name) ? ADDED
+                : cached.remove.contains(name) ? REMOVED : 0;
+        }
+        Index index = Index.open();
+        int i = index == null ? -1 : index.find(name);
+        return i < 0 ? 0 : index.flagsAt(i);
+    }
+
+    /** Return true iff nothing is staged. */
+    static boolean isEmpty() {
+        if (dirty || (cached != null && cachedStamp != null
+                      && cachedStamp.equals(Repository.stamp(INDEX)))) {
+            return cached.add.isEmpty() && cached.remove.isEmpty();
+        }
+        Index index = Index.open();
+        return index == null || index.size() == 0;
     }
 
     public void add(String filename, String blobId) {
         add.put(filename, blobId);
         remove.remove(filename);
     }
+
+    /** The stored index, mapped read-only into memory. */
+    static class Index {
+        private final ByteBuffer buf;
+        private final int count;
+
+        private Index(ByteBuffer buf) {
+            this.buf = buf;
+            byte[] header = new byte[4];
+            buf.get(0, header);
+            if (!Binary.hasMagic(header, MAGIC) || header[3] != VERSION) {
+                throw new IllegalArgumentException("Corrupt index");
+            }
+            this.count = buf.getInt(4);
+        }
+
+        /** Return the stored index, or null if there is none. */
+        static Index open() {
+            try (FileChannel ch = FileChannel.open(INDEX.toPath(), StandardOpenOption.READ)) {
+                Metrics.count("io.filesMapped");
+                Metrics.count("io.bytesMapped", ch.size());
+                return new Index(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            } catch (NoSuchFileException excp) {
+                return null;
+            } catch (IOException excp) {
+                throw error("Cannot read index: %s", excp.getMessage());
+            }
+        }
+
+        /** Return the number of entries. */
+        int size() {
+            return count;
+        }
+
+        private int offsetOf(int i) {
+            return buf.getInt(HEADER_LENGTH + 4 * i);
+        }
+
+        /** Return the UTF-8 bytes of the name of entry I. */
+        private byte[] nameBytesAt(int i) {
+            int at = offsetOf(i);
+            byte[] name = new byte[buf.getInt(at)];
+            buf.get(at + 4, name);
+            return name;
+        }
+
+        String nameAt(int i) {
+            return new String(nameBytesAt(i), StandardCharsets.UTF_8);
+        }
+
+        int modeAt(int i) {
+            int at = offsetOf(i);
+            return buf.getInt(at + 4 + buf.getInt(at));
+        }
+
+        int flagsAt(int i) {
+            int at = offsetOf(i);
+            return buf.get(at + 4 + buf.getInt(at) + 4);
+        }
+
+        String idAt(int i) {
+            int at = offsetOf(i);
+            byte[] raw = new byte[Pack.RAW_LENGTH];
+            buf.get(at + 4 + buf.getInt(at) + 4 + 1, raw);
+            return Pack.toHex(raw);
+        }
+
+        /** Return the position of the entry for NAME, or -1. */
+        int find(String name) {
+            byte[] key = name.getBytes(StandardCharsets.UTF_8);
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = Arrays.compareUnsigned(nameBytesAt(mid), key);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** Remembers the blob id of each working file together with what stat
+ *  reported for it when it was hashed, so that a file whose size,
+ *  modification time and inode are unchanged need not be read again.
+ *
+ *  The cache is the file .gitlet/statcache, in the Binary encoding
+ *      "GLT" VERSION  N (NAME SIZE MTIME INODE HASHED-AT BLOB-ID)*N
+ *  with times in nanoseconds, in name order.
+ *
+ *  A file modified shortly after it was hashed may keep its old
+ *  modification time, since file times have coarser resolution than the
+ *  clock.  An entry is therefore trusted only if the file was last
+ *  modified at least RACY_NANOS before it was hashed; younger files are
+ *  hashed again until they age past that.
+ *
+ *  @author Yuhao Wang
+ */
+class StatCache {
+    /** The cache file of the current repository. */
+    static final File CACHE_FILE = join(Repository.GITLET_DIR, "statcache");
+
+    private static final byte[] MAGIC = {'G', 'L', 'T'};
+    private static final int VERSION = 1;
+
+    /** Least age, at hashing time, of a modification time that is
+     *  trusted to change whenever the file does. */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** The stat of a file and the blob id of its contents. */
+    private static class Entry {
+        final long size;
+        final long mtime;
+        final String inode;
+        final long hashedAt;
+        final String id;
+
+        Entry(long size, long mtime, String inode, long hashedAt, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.hashedAt = hashedAt;
+            this.id = id;
+        }
+
+        /** Return true iff ATTRS show the file unchanged since this entry
+         *  was recorded. */
+        boolean matches(BasicFileAttributes attrs) {
+            return attrs.size() == size && mtimeOf(attrs) == mtime
+                && hashedAt - mtime >= RACY_NANOS && inodeOf(attrs).equals(inode);
+        }
+    }
+
+    /** Entries by file name, as last read or written, and the stamp of
+     *  CACHE_FILE they match.  Guarded by the class lock. */
+    private static HashMap<String, Entry> entries;
+    private static String entriesStamp;
+    /** True iff ENTRIES has changes that are not yet written. */
+    private static boolean dirty;
+    /** True iff ENTRIES must be checked against CACHE_FILE before use. */
+    private static boolean unchecked = true;
+
+    /** Note that a new command is starting, so that CACHE_FILE is checked
+     *  once for changes made since the last one. */
+    static synchronized void refresh() {
+        unchecked = true;
+    }
+
+    /** Return the blob id of the contents of FILE, a file in the working
+     *  directory, or null if it is not a regular file. */
+    static String hash(File file) {
+        BasicFileAttributes attrs = stat(file);
+        if (attrs == null || !attrs.isRegularFile()) {
+            return null;
+        }
+        Entry e;
+        synchronized (StatCache.class) {
+            e = load().get(WorkingTree.nameOf(file));
+        }
+        if (e != null && e.matches(attrs)) {
+            Metrics.hit("statcache");
+            return e.id;
+        }
+        Metrics.miss("statcache");
+        long hashedAt = System.currentTimeMillis() * 1000000;
+        String id = Blob.hashFile(file);
+        put(file, attrs, hashedAt, id);
+        return id;
+    }
+
+    /** Return true iff FILE, in the working directory, is a regular file
+     *  holding the contents of blob ID.  Blobs written by the first
+     *  versions of gitlet are not named by the hash of their contents, so
+     *  for them the contents are compared. */
+    static boolean holds(File file, String id) {
+        String hash = hash(file);
+        return hash != null
+            && (hash.equals(id) || Blob.isLegacy(id) && Blob.readBlob(id).sameContents(file));
+    }
+
+    /** Record that FILE, in the working directory, was just written with
+     *  the contents of blob ID. */
+    static void record(File file, String id) {
+        BasicFileAttributes attrs = stat(file);
+        if (attrs != null) {
+            put(file, attrs, System.currentTimeMillis() * 1000000, id);
+        }
+    }
+
+    /** Write the cache if it has unwritten changes. */
+    static synchronized void save() {
+        if (!dirty || !Repository.GITLET_DIR.isDirectory()) {
+            return;
+        }
+        Binary.Writer w = new Binary.Writer(MAGIC, VERSION);
+        w.writeVarint(entries.size());
+        for (Map.Entry<String, Entry> me : new TreeMap<>(entries).entrySet()) {
+            Entry e = me.getValue();
+            w.writeString(me.getKey()).writeVarint(e.size).writeVarint(e.mtime)
+                .writeString(e.inode).writeVarint(e.hashedAt).writeId(e.id);
+        }
+        writeContents(CACHE_FILE, w.toByteArray());
+        entriesStamp = Repository.stamp(CACHE_FILE);
+        dirty = false;
+    }
+
+    /** Add an entry for FILE with ATTRS, hashed at HASHEDAT to ID. */
+    private static synchronized void put(File file, BasicFileAttributes attrs,
+                                         long hashedAt, String id) {
+        load().put(WorkingTree.nameOf(file),
+                new Entry(attrs.size(), mtimeOf(attrs), inodeOf(attrs), hashedAt, id));
+        dirty = true;
+    }
+
+    /** Return the entries, reading CACHE_FILE if it changed. */
+    private static HashMap<String, Entry> load() {
+        if (dirty || (entries != null && !unchecked)) {
+            return entries;
+        }
+        unchecked = false;
+        String stamp = Repository.stamp(CACHE_FILE);
+        if (entries != null && stamp != null && stamp.equals(entriesStamp)) {
+            return entries;
+        }
+        entries = new HashMap<>();
+        entriesStamp = stamp;
+        if (stamp != null) {
+            try {
+                Binary.Reader r = new Binary.Reader(readContents(CACHE_FILE), MAGIC);
+                for (int n = r.readInt(); n > 0; n -= 1) {
+                    String name = r.readString();
+                    entries.put(name, new Entry(r.readVarint(), r.readVarint(),
+                            r.readString(), r.readVarint(), r.readId()));
+                }
+            } catch (IllegalArgumentException | IndexOutOfBoundsException excp) {
+                entries.clear();
+            }
+        }
+        return entries;
+    }
+
+    /** Return the attributes of FILE, or null if it does not exist. */
+    private static BasicFileAttributes stat(File file) {
+        Metrics.count("io.stats");
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    private static long mtimeOf(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static String inodeOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? "" : key.toString();
+    }
+}
@@ -0,0 +1,289 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** One directory of the files tracked by a commit.
+ *
+ *  A tree is the text
+ *      tree
+ *      MODE ID NAME
+ *      ...
+ *  with one line per entry in name order.  MODE is FILE_MODE for a file,
+ *  whose ID is a blob, and DIR_MODE for a subdirectory, whose ID is
+ *  another tree.  Trees are kept in the blob store, so they are
+ *  content-addressed: a directory that did not change between two
+ *  commits has the same id in both and is stored once, and one that did
+ *  is usually stored as a small delta against its previous version.  A
+ *  commit holds only the id of its root tree, so writing one stores just
+ *  the directories on the paths to the files that changed.
+ *
+ *  Commits written before trees name a Manifest instead; read and diff
+ *  accept either.
+ *
+ *  @author Yuhao Wang
+ */
+class Tree {
+    /** First line of every tree. */
+    private static final String HEADER = "tree\n";
+    static final String FILE_MODE = "100644";
+    static final String DIR_MODE = "040000";
+
+    /** An entry of a tree: a file or a subdirectory, and its id. */
+    static class Entry {
+        final boolean isDir;
+        final String id;
+
+        Entry(boolean isDir, String id) {
+            this.isDir = isDir;
+            this.id = id;
+        }
+    }
+
+    /** A directory about to be written. */
+    private static class Dir {
+        final TreeMap<String, String> files = new TreeMap<>();
+        final TreeMap<String, Dir> dirs = new TreeMap<>();
+        byte[] text;
+        String id;
+    }
+
+    /** Store the trees of FILES (name -> blob id, with '/' separating
+     *  directories), as deltas against those of the tree BASE where it
+     *  has them, and return the id of the root.  Directories already
+     *  stored are not written again. */
+    static String write(Map<String, String> files, String base) {
+        Dir root = new Dir();
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            Dir dir = root;
+            String[] parts = e.getKey().split("/");
+            for (int i = 0; i < parts.length - 1; i += 1) {
+                dir = dir.dirs.computeIfAbsent(parts[i], k -> new Dir());
+            }
+            dir.files.put(parts[parts.length - 1], e.getValue());
+        }
+        hash(root);
+        store(root, base);
+        return root.id;
+    }
+
+    /** Compute the text and id of DIR and of every directory under it. */
+    private static void hash(Dir dir) {
+        TreeMap<String, String> lines = new TreeMap<>();
+        for (Map.Entry<String, Dir> e : dir.dirs.entrySet()) {
+            hash(e.getValue());
+            lines.put(e.getKey(), DIR_MODE + " " + e.getValue().id);
+        }
+        for (Map.Entry<String, String> e : dir.files.entrySet()) {
+            lines.put(e.getKey(), FILE_MODE + " " + e.getValue());
+        }
+        StringBuilder text = new StringBuilder(HEADER);
+        for (Map.Entry<String, String> e : lines.entrySet()) {
+            text.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+        }
+        dir.text = text.toString().getBytes(StandardCharsets.UTF_8);
+        dir.id = sha1((Object) dir.text);
+    }
+
+    /** Store DIR and the directories under it that are not yet stored,
+     *  each as a delta against the same directory in tree BASE, which may
+     *  be null or not a tree. */
+    private static void store(Dir dir, String base) {
+        if (Blob.exists(dir.id)) {
+            return;
+        }
+        Blob.stageBytes(dir.text);
+        Blob.commitStaged(dir.id, base);
+        Map<String, Entry> old = base == null ? null : entries(base);
+        for (Map.Entry<String, Dir> e : dir.dirs.entrySet()) {
+            Entry prev = old == null ? null : old.get(e.getKey());
+            store(e.getValue(), prev != null && prev.isDir ? prev.id : null);
+        }
+    }
+
+    /** Return the files (name -> blob id) under tree or manifest ID. */
+    static HashMap<String, String> read(String id) {
+        String text = new String(Blob.contents(id), StandardCharsets.UTF_8);
+        if (!text.startsWith(HEADER)) {
+            return Manifest.parse(id, text);
+        }
+        HashMap<String, String> files = new HashMap<>();
+        flatten(parse(id, text), "", files);
+        return files;
+    }
+
+    /** Return the entries of tree ID by name, in name order, or null if ID
+     *  is not a tree. */
+    static TreeMap<String, Entry> entries(String id) {
+        return entries(id, Blob.contents(id));
+    }
+
+    /** Return the entries of tree ID, whose contents are CONTENTS, or null
+     *  if ID is not a tree. */
+    static TreeMap<String, Entry> entries(String id, byte[] contents) {
+        String text = new String(contents, StandardCharsets.UTF_8);
+        return text.startsWith(HEADER) ? parse(id, text) : null;
+    }
+
+    /** Return the entries listed by TEXT, the contents of tree ID. */
+    private static TreeMap<String, Entry> parse(String id, String text) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        int start = HEADER.length();
+        int modeLength = FILE_MODE.length();
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                throw new IllegalArgumentException("Corrupt tree " + id);
+            }
+            int idStart = start + modeLength + 1;
+            int nameStart = idStart + UID_LENGTH + 1;
+            boolean isDir = text.startsWith(DIR_MODE, start);
+            entries.put(text.substring(nameStart, end),
+                        new Entry(isDir, text.substring(idStart, idStart + UID_LENGTH)));
+            start = end + 1;
+        }
+        return entries;
+    }
+
+    /** Add every file in ENTRIES and the trees under them to FILES, with
+     *  PREFIX before each name. */
+    private static void flatten(Map<String, Entry> entries, String prefix,
+                                Map<String, String> files) {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.isDir) {
+                flatten(entries(entry.id), prefix + e.getKey() + "/", files);
+            } else {
+                files.put(prefix + e.getKey(), entry.id);
+            }
+        }
+    }
+
+    /** Return true iff the file or directory PATH differs between commits
+     *  FROM, which may be null for none, and TO.  When both have trees,
+     *  only the trees on the way to PATH are read. */
+    static boolean changed(Commit from, Commit to, String path) {
+        Map<String, Entry> a = from == null ? Map.of()
+            : from.tree == null ? null : entries(from.tree);
+        Map<String, Entry> b = to.tree == null ? null : entries(to.tree);
+        if (a != null && b != null) {
+            return !Objects.equals(find(a, path), find(b, path));
+        }
+        Map<String, String> before = from == null ? Map.of() : from.getContextHash();
+        String prefix = path + "/";
+        for (String name : diff(before, to.getContextHash()).keySet()) {
+            if (name.equals(path) || name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the id of the file or directory PATH in the directory whose
+     *  entries are ENTRIES, or null if there is none. */
+    static String find(Map<String, Entry> entries, String path) {
+        Entry entry = entry(entries, path);
+        return entry == null ? null : entry.id;
+    }
+
+    /** Return the entry of the file or directory PATH in the directory
+     *  whose entries are ENTRIES, or null if there is none. */
+    static Entry entry(Map<String, Entry> entries, String path) {
+        String[] parts = path.split("/");
+        for (int i = 0; i < parts.length - 1; i += 1) {
+            Entry entry = entries.get(parts[i]);
+            if (entry == null || !entry.isDir) {
+                return null;
+            }
+            entries = entries(entry.id);
+        }
+        return entries.get(parts[parts.length - 1]);
+    }
+
+    /** Return the files whose blob ids differ between commits FROM and TO,
+     *  as name -> {id in FROM, id in TO}, with null for a file one of them
+     *  lacks.  Subtrees with equal ids are skipped without being read. */
+    static TreeMap<String, String[]> diff(Commit from, Commit to) {
+        if (from.tree != null && to.tree != null) {
+            return diff(from.tree, to.tree);
+        }
+        return diff(from.getContextHash(), to.getContextHash());
+    }
+
+    /** Return the differences between the files under trees or manifests
+     *  FROM and TO, as for diff(Commit, Commit). */
+    static TreeMap<String, String[]> diff(String from, String to) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        if (from.equals(to)) {
+            return changes;
+        }
+        TreeMap<String, Entry> a = entries(from);
+        TreeMap<String, Entry> b = entries(to);
+        if (a == null || b == null) {
+            return diff(read(from), read(to));
+        }
+        diff(a, b, "", changes);
+        return changes;
+    }
+
+    /** Add to CHANGES the differences between directories A and B, with
+     *  PREFIX before each name. */
+    private static void diff(Map<String, Entry> a, Map<String, Entry> b, String prefix,
+                             Map<String, String[]> changes) {
+        TreeSet<String> names = new TreeSet<>(a.keySet());
+        names.addAll(b.keySet());
+        for (String name : names) {
+            Entry x = a.get(name);
+            Entry y = b.get(name);
+            if (x != null && y != null && x.isDir == y.isDir && x.id.equals(y.id)) {
+                continue;
+            }
+            if (x != null && y != null && x.isDir && y.isDir) {
+                diff(entries(x.id), entries(y.id), prefix + name + "/", changes);
+                continue;
+            }
+            Map<String, String> before = expand(x, prefix + name);
+            Map<String, String> after = expand(y, prefix + name);
+            changes.putAll(diff(before, after));
+        }
+    }
+
+    /** Return the files named by ENTRY, which is called NAME: the file
+     *  itself, everything under it if it is a directory, or nothing if it
+     *  is null. */
+    private static Map<String, String> expand(Entry entry, String name) {
+        HashMap<String, String> files = new HashMap<>();
+        if (entry == null) {
+            return files;
+        } else if (entry.isDir) {
+            flatten(entries(entry.id), name + "/", files);
+        } else {
+            files.put(name, entry.id);
+        }
+        return files;
+    }
+
+    /** Return the differences between the file maps FROM and TO, as for
+     *  diff(Commit, Commit). */
+    static TreeMap<String, String[]> diff(Map<String, String> from, Map<String, String> to) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        for (Map.Entry<String, String> e : from.entrySet()) {
+            String other = to.get(e.getKey());
+            if (!e.getValue().equals(other)) {
+                changes.put(e.getKey(), new String[] {e.getValue(), other});
+            }
+        }
+        for (Map.Entry<String, String> e : to.entrySet()) {
+            if (!from.containsKey(e.getKey())) {
+                changes.put(e.getKey(), new String[] {null, e.getValue()});
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,391 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static gitlet.Utils.*;
+
+/** Moves the tracked files of the working directory from one commit's
+ *  contents to another's, touching only the paths that differ, and
+ *  stages whole directories of files at once.
+ *
+ *  A path tracked by both commits with the same blob id is left alone
+ *  unless the working file no longer holds that blob, so switching
+ *  between two large, mostly equal trees rewrites only the few files
+ *  that changed.
+ *
+ *  Blobs are read and files written on a pool of up to jobs() threads.
+ *  The first failure stops the remaining writes and is rethrown; callers
+ *  update the head, branches and stage only after a write succeeds, so a
+ *  failed checkout leaves them as they were.
+ *
+ *  @author Yuhao Wang
+ */
+class WorkingTree {
+    /** Environment variable giving the most files written or hashed at
+     *  once. */
+    static final String JOBS = "GITLET_JOBS";
+
+    /** Fewest files per thread worth handing to the pool. */
+    private static final int MIN_PER_JOB = 16;
+
+    /** Return the configured number of threads: the value of
+     *  JOBS if it is a positive integer, and otherwise the number of
+     *  processors. */
+    static int jobs() {
+        String value = Daemon.getenv(JOBS);
+        if (value != null) {
+            try {
+                int n = Integer.parseInt(value.trim());
+                if (n > 0) {
+                    return n;
+                }
+            } catch (NumberFormatException excp) {
+                // Fall back to the default.
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Make the tracked files of the working directory match TO (name ->
+     *  blob id), given that they match FROM.  Files tracked by FROM but
+     *  not TO are deleted.  Return the number of files written or
+     *  deleted. */
+    static int checkout(Map<String, String> from, Map<String, String> to) {
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> entry : to.entrySet()) {
+            String id = entry.getValue();
+            boolean unchanged = id.equals(from.get(entry.getKey()));
+            File file = join(Repository.CWD, entry.getKey());
+            tasks.add(() -> {
+                if (unchanged && StatCache.holds(file, id)) {
+                    return false;
+                }
+                Blob.readBlob(id).writeTo(file);
+                StatCache.record(file, id);
+                return true;
+            });
+        }
+        int touched = run(tasks, jobs());
+        for (String name : from.keySet()) {
+            if (!to.containsKey(name) && remove(name)) {
+                touched += 1;
+            }
+        }
+        Metrics.count("checkout.filesUpdated", touched);
+        Metrics.verbose("%d files updated.", touched);
+        return touched;
+    }
+
+    /** Write each file named in FILES with the contents of its blob id,
+     *  using up to JOBS threads. */
+    static void write(Map<String, String> files, int jobs) {
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            String id = entry.getValue();
+            File file = join(Repository.CWD, entry.getKey());
+            tasks.add(() -> {
+                Blob.readBlob(id).writeTo(file);
+                StatCache.record(file, id);
+                return true;
+            });
+        }
+        run(tasks, jobs);
+    }
+
+    /** Write each file named in FILES with the contents of its blob id. */
+    static void write(Map<String, String> files) {
+        write(files, jobs());
+    }
+
+    /** Write the file NAME with CONTENTS, the bytes of blob ID, creating
+     *  its directory if needed. */
+    static void write(String name, byte[] contents, String id) {
+        File file = join(Repository.CWD, name);
+        file.getParentFile().mkdirs();
+        writeContents(file, contents);
+        StatCache.record(file, id);
+    }
+
+    /** Stage the regular files at or under each of ROOTS, which exist
+     *  within the working directory, hashing and storing them on up to
+     *  JOBS threads.  Only files that differ from both the head commit and
+     *  the stage are read in full and stored; the stage is then written
+     *  once.  Return the number of paths whose staging changed. */
+    static int add(List<File> roots, int jobs) {
+        Map<String, String> ids = Metrics.time("add.hash", () -> hashAll(roots, jobs));
+        Map<String, String> committed = Commit.readCommit(Repository.readHead()).getContextHash();
+        if (committed == null) {
+            committed = new HashMap<>();
+        }
+        Set<String> differing = new HashSet<>();
+        for (Map.Entry<String, String> entry : ids.entrySet()) {
+            String name = entry.getKey();
+            String id = committed.get(name);
+            if (id == null || !id.equals(entry.getValue())
+                    && !StatCache.holds(join(Repository.CWD, name), id)) {
+                differing.add(name);
+            }
+        }
+        if (differing.isEmpty() && Stage.isEmpty()) {
+            return 0;
+        }
+
+        Stage stage = Stage.readStaged();
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        Map<String, String> stored = new ConcurrentHashMap<>();
+        for (String name : differing) {
+            String staged = stage.add.get(name);
+            if (!stage.remove.contains(name) && !ids.get(name).equals(staged)) {
+                File file = join(Repository.CWD, name);
+                tasks.add(() -> {
+                    stored.put(name, Blob.stageFile(file));
+                    return true;
+                });
+            }
+        }
+        Metrics.time("add.store", () -> run(tasks, jobs));
+        Metrics.count("add.stored", stored.size());
+
+        int changed = 0;
+        Set<String> replaced = new HashSet<>();
+        for (String name : ids.keySet()) {
+            String old = null;
+            if (stage.remove.remove(name)) {
+                changed += 1;
+            } else if (stored.containsKey(name)) {
+                old = stage.add.put(name, stored.get(name));
+                changed += 1;
+            } else if (!differing.contains(name)) {
+                old = stage.add.remove(name);
+                changed += old == null ? 0 : 1;
+            }
+            if (old != null) {
+                replaced.add(old);
+            }
+        }
+        if (changed > 0) {
+            Stage.writeStaged(stage);
+        }
+        replaced.removeAll(stage.add.values());
+        for (String id : replaced) {
+            Blob.deleteFromStage(id);
+        }
+        return changed;
+    }
+
+    /** Return the blob id of each regular file at or under ROOTS, by name
+     *  relative to the working directory, in name order.  Directories are
+     *  walked and files hashed on up to JOBS threads; the repository
+     *  directory is skipped. */
+    static Map<String, String> hashAll(List<File> roots, int jobs) {
+        Map<String, String> ids = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, jobs));
+        try {
+            pool.invoke(new HashTask(roots.toArray(new File[0]), 0, roots.size(), ids));
+        } finally {
+            pool.shutdownNow();
+        }
+        return new TreeMap<>(ids);
+    }
+
+    /** Hashes FILES[LO .. HI-1] into IDS, splitting long runs in two and
+     *  descending into directories as further tasks. */
+    private static class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final File[] files;
+        private final int lo;
+        private final int hi;
+        private final Map<String, String> ids;
+
+        HashTask(File[] files, int lo, int hi, Map<String, String> ids) {
+            this.files = files;
+            this.lo = lo;
+            this.hi = hi;
+            this.ids = ids;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > MIN_PER_JOB) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new HashTask(files, lo, mid, ids), new HashTask(files, mid, hi, ids));
+                return;
+            }
+            List<HashTask> subdirs = new ArrayList<>();
+            for (int i = lo; i < hi; i += 1) {
+                File file = files[i];
+                if (file.isDirectory()) {
+                    File[] children = file.listFiles();
+                    if (children != null && !file.equals(Repository.GITLET_DIR)
+                            && !Files.isSymbolicLink(file.toPath())) {
+                        subdirs.add(new HashTask(children, 0, children.length, ids));
+                    }
+                } else {
+                    String id = StatCache.hash(file);
+                    if (id != null) {
+                        ids.put(nameOf(file), id);
+                    }
+                }
+            }
+            invokeAll(subdirs);
+        }
+    }
+
+    /** Delete the working file NAME, if it exists, and then any
+     *  directories that deleting it left empty.  Return true iff the file
+     *  existed. */
+    static boolean remove(String name) {
+        File file = join(Repository.CWD, name);
+        if (!file.delete()) {
+            return false;
+        }
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(Repository.CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+        return true;
+    }
+
+    /** Return true iff writing the files named in TARGET would overwrite
+     *  one of the UNTRACKED files by making a directory of it, or of one of
+     *  the directories holding it. */
+    static boolean blocksDirectories(Collection<String> untracked, Set<String> target) {
+        Set<String> dirs = new HashSet<>();
+        for (String name : target) {
+            for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+                dirs.add(name.substring(0, i));
+            }
+        }
+        for (String name : untracked) {
+            if (dirs.contains(name)) {
+                return true;
+            }
+            for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+                if (target.contains(name.substring(0, i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the names of all regular files in the working directory and
+     *  its subdirectories, other than the repository's own, in name
+     *  order. */
+    static List<String> files() {
+        List<String> names = new ArrayList<>();
+        listFiles(Repository.CWD, "", names);
+        names.sort(null);
+        return names;
+    }
+
+    /** Add to NAMES the regular files under DIR, each with PREFIX before
+     *  its name. */
+    private static void listFiles(File dir, String prefix, List<String> names) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isFile()) {
+                names.add(prefix + child.getName());
+            } else if (child.isDirectory() && !child.equals(Repository.GITLET_DIR)
+                       && !Files.isSymbolicLink(child.toPath())) {
+                listFiles(child, prefix + child.getName() + "/", names);
+            }
+        }
+    }
+
+    /** Return the name of FILE relative to the working directory, with
+     *  '/' separating its components. */
+    static String nameOf(File file) {
+        String path = file.getPath();
+        String root = Repository.CWD.getPath() + File.separator;
+        if (!path.startsWith(root)) {
+            path = Repository.CWD.toPath().relativize(file.toPath()).toString();
+        } else {
+            path = path.substring(root.length());
+        }
+        return File.separatorChar == '/' ? path : path.replace(File.separatorChar, '/');
+    }
+
+    /** Run TASKS on up to JOBS threads and return how many returned true.
+     *  Once a task fails, those not yet started are skipped and the
+     *  failure is rethrown. */
+    private static int run(List<Callable<Boolean>> tasks, int jobs) {
+        jobs = Math.min(jobs, tasks.size() / MIN_PER_JOB);
+        int done = 0;
+        if (jobs <= 1) {
+            for (Callable<Boolean> task : tasks) {
+                done += call(task) ? 1 : 0;
+            }
+            return done;
+        }
+        AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (Callable<Boolean> task : tasks) {
+                results.add(pool.submit(() -> {
+                    if (failed.get()) {
+                        return false;
+                    }
+                    try {
+                        return call(task);
+                    } catch (RuntimeException excp) {
+                        failed.set(true);
+                        throw excp;
+                    }
+                }));
+            }
+            RuntimeException failure = null;
+            for (Future<Boolean> result : results) {
+                try {
+                    done += result.get() ? 1 : 0;
+                } catch (ExecutionException excp) {
+                    if (failure == null) {
+                        failure = (RuntimeException) excp.getCause();
+                    }
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw error("Interrupted while writing files.");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return done;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the result of TASK, which throws only unchecked exceptions. */
+    private static boolean call(Callable<Boolean> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException excp) {
+            throw excp;
+        } catch (Exception excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+}